@@ -0,0 +1,40 @@
+import java.util.Random;
+
+/**
+ * Fixed boards for the benchmarks, as tile exponents indexed by {@code y * gridSize + x}. Every fixture is
+ * generated from a fixed seed, so runs on different commits compare the same positions.
+ *
+ * @author Bram
+ */
+public enum BoardFixtures {
+
+    EMPTY, MID_GAME, NEARLY_FULL, LOCKED;
+
+    public int[] create(int gridSize) {
+        Random random = new Random(31L * gridSize + ordinal());
+        int[] cells = new int[gridSize * gridSize];
+        for (int y = 0; y < gridSize; y++) {
+            for (int x = 0; x < gridSize; x++) {
+                int i = y * gridSize + x;
+                switch (this) {
+                    case MID_GAME:
+                        cells[i] = random.nextBoolean() ? 1 + random.nextInt(6) : 0;
+                        break;
+                    case NEARLY_FULL:
+                        cells[i] = 1 + random.nextInt(8);
+                        break;
+                    case LOCKED:
+                        // alternating exponents never have an equal neighbour
+                        cells[i] = 1 + ((x + y) & 1) + 2 * ((x / 2 + y) % 3);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        if (this == NEARLY_FULL) {
+            cells[random.nextInt(cells.length)] = 0;
+        }
+        return cells;
+    }
+}
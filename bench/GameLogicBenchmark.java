@@ -0,0 +1,146 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Regression baseline for the game logic hot paths: moves, spawn cell selection and game over detection,
+ * on every {@link BoardFixtures} fixture and grid sizes 4, 8 and 16, plus serial against parallel moves on
+ * large grids, batches of moves on a {@link SessionStore} and the scalar against the SIMD {@link BatchMover}.
+ * Spawns and game over checks are timed on the {@link GameEngine} the game runs on, with the scans of the
+ * old {@code GameManager} ({@link LegacyGrid}) on the same fixture as their baseline column.
+ *
+ * Build and run from the repository root (only the headless classes get compiled):
+ * <pre>
+ * javac -d out/bench -sourcepath src bench/*.java
+ * java -cp out/bench GameLogicBenchmark [name filter]
+ * </pre>
+ * The SIMD kernel is only measured when it is built and its module added:
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -d out/bench -cp out/bench vector/VectorBatchMover.java
+ * java --add-modules jdk.incubator.vector -cp out/bench GameLogicBenchmark batchMover
+ * </pre>
+ *
+ * @author Bram
+ */
+public class GameLogicBenchmark {
+
+    private static final int[] GRID_SIZES = {4, 8, 16};
+    private static final int[] LARGE_GRID_SIZES = {64, 128, 256};
+    /**
+     * Cells of the engines an engine benchmark gets through between two setups
+     */
+    private static final int ENGINE_CELLS_PER_SETUP = 4096;
+    private static final int STORE_GAMES = 1 << 20;
+    private static final int STORE_BATCH = 4096;
+
+    public static void main(String[] args) {
+        MicroBenchmark bench = new MicroBenchmark(3, 5, 300, args.length > 0 ? args[0] : null);
+        Direction[] directions = Direction.values();
+
+        for (int gridSize : GRID_SIZES) {
+            GridOperator gridOperator = new GridOperator(gridSize);
+            bench.run("traverseGrid size=" + gridSize, () -> gridOperator.traverseGrid((x, y) -> x ^ y));
+
+            for (BoardFixtures fixture : BoardFixtures.values()) {
+                String suffix = " size=" + gridSize + " " + fixture;
+                int[] cells = fixture.create(gridSize);
+
+                Supplier<GameEngine> factory = () -> new GameEngine(gridSize);
+                int[] turn = {0};
+                runEngines(bench, "engine.move" + suffix, cells, factory,
+                        engine -> engine.move(directions[turn[0]++ & 3]), null);
+
+                LegacyGrid legacy = new LegacyGrid(gridSize, cells);
+                runEngines(bench, "engine.spawnRandomTile" + suffix, cells, factory, GameEngine::spawnRandomTile,
+                        () -> {
+                            Location location = legacy.findRandomAvailableLocation();
+                            return location == null ? 0 : location.getX();
+                        });
+                GameEngine fixtureEngine = factory.get();
+                fixtureEngine.setExponents(cells);
+                bench.run("engine.isGameOver" + suffix, 0, null, () -> fixtureEngine.isGameOver() ? 1 : 0,
+                        () -> legacy.isFull() && legacy.mergeMovementsAvailable() == 0 ? 1 : 0);
+
+                if (gridSize == BitBoard.SIZE) {
+                    long board = fixtureEngine.toBitBoard();
+                    bench.run("bitboard.move" + suffix, () -> BitBoard.move(board, directions[turn[0]++ & 3]));
+                    bench.run("bitboard.canMove" + suffix, () -> BitBoard.canMove(board) ? 1 : 0);
+                }
+            }
+        }
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        for (int gridSize : LARGE_GRID_SIZES) {
+            int[] cells = BoardFixtures.MID_GAME.create(gridSize);
+            int[] turn = {0};
+            EngineOperation move = engine -> engine.move(directions[turn[0]++ & 3]);
+            runEngines(bench, "engine.move serial size=" + gridSize, cells, () -> new GameEngine(gridSize, null),
+                    move, null);
+            runEngines(bench, "engine.move parallel=" + pool.getParallelism() + " size=" + gridSize, cells,
+                    () -> new GameEngine(gridSize, pool), move, null);
+        }
+
+        for (boolean offHeap : new boolean[]{false, true}) {
+            SessionStore store = new SessionStore(STORE_GAMES, offHeap);
+            for (int i = 0; i < STORE_GAMES; i++) {
+                store.create(i);
+            }
+            int[] slots = new int[STORE_BATCH];
+            byte[] moves = new byte[STORE_BATCH];
+            int[] next = {0};
+            int[] turn = {0};
+            bench.run("sessionStore.moveAll batch=" + STORE_BATCH + (offHeap ? " off-heap" : " heap"), () -> {
+                for (int i = 0; i < STORE_BATCH; i++) {
+                    slots[i] = next[0];
+                    moves[i] = (byte) (next[0] * 7 + turn[0] & 3);
+                    next[0] = (next[0] + 1) % STORE_GAMES;
+                }
+                turn[0]++;
+                return store.moveAll(slots, moves, STORE_BATCH, null);
+            });
+        }
+
+        long[] boards = new long[STORE_BATCH];
+        GameRandom random = new GameRandom(42);
+        for (int i = 0; i < STORE_BATCH; i++) {
+            for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+                // mid game density: a third of the cells empty
+                int exponent = random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(8);
+                boards[i] |= (long) exponent << (4 * cell);
+            }
+        }
+        long[] moved = new long[STORE_BATCH];
+        int[] scores = new int[STORE_BATCH];
+        BatchMover vector = BatchMover.vector();
+        for (BatchMover mover : vector == null ? new BatchMover[]{BatchMover.SCALAR}
+                : new BatchMover[]{BatchMover.SCALAR, vector}) {
+            int[] turn = {0};
+            bench.run("batchMover.move batch=" + STORE_BATCH + (mover == BatchMover.SCALAR ? " scalar" : " vector"),
+                    () -> mover.move(boards, STORE_BATCH, directions[turn[0]++ & 3], moved, scores));
+        }
+    }
+
+    @FunctionalInterface
+    private interface EngineOperation {
+        long run(GameEngine engine);
+    }
+
+    /**
+     * Measures an operation on engines set to the given cells, once per engine: the engines are reset between
+     * batches, outside the timed region. {@code legacy}, if not null, is the same path in the old
+     * {@link GameManager} code, reported as the baseline.
+     */
+    private static void runEngines(MicroBenchmark bench, String name, int[] cells, Supplier<GameEngine> factory,
+                                   EngineOperation operation, MicroBenchmark.Operation legacy) {
+        GameEngine[] engines = new GameEngine[Math.max(1, ENGINE_CELLS_PER_SETUP / cells.length)];
+        for (int i = 0; i < engines.length; i++) {
+            engines[i] = factory.get();
+        }
+        int[] next = {0};
+        bench.run(name, engines.length, () -> {
+            for (GameEngine engine : engines) {
+                engine.setExponents(cells);
+            }
+            next[0] = 0;
+        }, () -> operation.run(engines[next[0]++]), legacy);
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Headless copy of the spawn and game over scans of {@link GameManager} (map of {@link Location}s, streams,
+ * {@code Optional}s), with tile values instead of {@code Tile} nodes. Serves as the baseline the engine
+ * implementations are measured against.
+ *
+ * @author Bram
+ */
+public class LegacyGrid {
+
+    private final GridOperator gridOperator;
+    private final List<Location> locations = new ArrayList<>();
+    private final Map<Location, Integer> gameGrid = new HashMap<>();
+
+    public LegacyGrid(int gridSize, int[] exponents) {
+        gridOperator = new GridOperator(gridSize);
+        gridOperator.traverseGrid((x, y) -> {
+            Location location = new Location(x, y);
+            locations.add(location);
+            int exponent = exponents[y * gridSize + x];
+            gameGrid.put(location, exponent == 0 ? null : 1 << exponent);
+            return 0;
+        });
+    }
+
+    public Location findRandomAvailableLocation() {
+        List<Location> availableLocations = locations.stream().filter(l -> gameGrid.get(l) == null)
+                .collect(Collectors.toList());
+
+        if (availableLocations.isEmpty()) {
+            return null;
+        }
+
+        Collections.shuffle(availableLocations);
+        return availableLocations.get(0);
+    }
+
+    public int mergeMovementsAvailable() {
+        final AtomicInteger pairsOfMergableTiles = new AtomicInteger();
+
+        Stream.of(Direction.UP, Direction.LEFT).parallel().forEach(direction -> {
+            gridOperator.traverseGrid((x, y) -> {
+                Location thisLoc = new Location(x, y);
+                optionalTile(thisLoc).ifPresent(t -> {
+                    if (optionalTile(offset(thisLoc, direction)).filter(t::equals).isPresent()) {
+                        pairsOfMergableTiles.incrementAndGet();
+                    }
+                });
+                return 0;
+            });
+        });
+
+        return pairsOfMergableTiles.get();
+    }
+
+    public boolean isFull() {
+        return gameGrid.values().parallelStream().noneMatch(v -> v == null);
+    }
+
+    private static Location offset(Location location, Direction direction) {
+        return new Location(location.getX() + direction.getX(), location.getY() + direction.getY());
+    }
+
+    private Optional<Integer> optionalTile(Location loc) {
+        return Optional.ofNullable(gameGrid.get(loc));
+    }
+}
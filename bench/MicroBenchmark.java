@@ -0,0 +1,137 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Minimal benchmark harness: timed warmup and measurement iterations per operation, reporting the average
+ * time per operation and the bytes allocated per operation by the benchmark thread (like JMH's
+ * {@code -prof gc}). Results of every operation are folded into a volatile sink so the JIT can't drop them.
+ * Operations that use up their input get a setup step, run between batches outside the timed region.
+ * An operation can be measured next to a baseline implementation, which is reported as a speedup column.
+ *
+ * @author Bram
+ */
+public class MicroBenchmark {
+
+    @FunctionalInterface
+    public interface Operation {
+        long run();
+    }
+
+    private static volatile long sink;
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final String filter;
+    private final List<String> results = new ArrayList<>();
+
+    public MicroBenchmark(int warmupIterations, int measurementIterations, long iterationMillis, String filter) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = iterationMillis * 1_000_000L;
+        this.filter = filter;
+    }
+
+    public void run(String name, Operation operation) {
+        run(name, 0, null, operation, null);
+    }
+
+    /**
+     * Measures an operation that changes its input: {@code setup} restores it before every
+     * {@code opsPerSetup} operations and isn't timed.
+     */
+    public void run(String name, int opsPerSetup, Runnable setup, Operation operation) {
+        run(name, opsPerSetup, setup, operation, null);
+    }
+
+    /**
+     * Measures an operation and reports how many times faster it is than {@code baseline}, which gets no
+     * line of its own and must leave its input as it is.
+     */
+    public void run(String name, int opsPerSetup, Runnable setup, Operation operation, Operation baseline) {
+        if (filter != null && !name.contains(filter)) {
+            return;
+        }
+        double[] result = measure(operation, opsPerSetup, setup);
+        String speedup = "";
+        if (baseline != null) {
+            speedup = String.format(Locale.ROOT, " %10.1fx baseline", measure(baseline, 0, null)[0] / result[0]);
+        }
+        String line = String.format(Locale.ROOT, "%-58s %12.1f +- %8.1f ns/op %12.1f B/op%s", name, result[0],
+                result[1], result[2], speedup);
+        results.add(line);
+        System.out.println(line);
+    }
+
+    public List<String> getResults() {
+        return results;
+    }
+
+    /**
+     * Returns the mean and standard deviation of the time per operation and the bytes allocated per operation.
+     */
+    private double[] measure(Operation operation, int opsPerSetup, Runnable setup) {
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(operation, opsPerSetup, setup);
+        }
+        double[] nanosPerOp = new double[measurementIterations];
+        double bytesPerOp = 0;
+        for (int i = 0; i < measurementIterations; i++) {
+            long bytesBefore = allocatedBytes();
+            long[] opsAndNanos = iteration(operation, opsPerSetup, setup);
+            long bytes = allocatedBytes() - bytesBefore;
+            nanosPerOp[i] = (double) opsAndNanos[1] / opsAndNanos[0];
+            bytesPerOp += (double) bytes / opsAndNanos[0] / measurementIterations;
+        }
+        double mean = 0;
+        for (double v : nanosPerOp) {
+            mean += v / measurementIterations;
+        }
+        double variance = 0;
+        for (double v : nanosPerOp) {
+            variance += (v - mean) * (v - mean) / measurementIterations;
+        }
+        return new double[]{mean, Math.sqrt(variance), bytesPerOp};
+    }
+
+    private long[] iteration(Operation operation, int opsPerSetup, Runnable setup) {
+        long ops = 0;
+        long result = 0;
+        long elapsed = 0;
+        if (setup != null) {
+            do {
+                setup.run();
+                long start = System.nanoTime();
+                for (int i = 0; i < opsPerSetup; i++) {
+                    result += operation.run();
+                }
+                elapsed += System.nanoTime() - start;
+                ops += opsPerSetup;
+            } while (elapsed < iterationNanos);
+            sink += result;
+            return new long[]{ops, elapsed};
+        }
+        long start = System.nanoTime();
+        int batch = 1;
+        do {
+            for (int i = 0; i < batch; i++) {
+                result += operation.run();
+            }
+            ops += batch;
+            batch = Math.min(batch * 2, 1 << 16);
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        sink += result;
+        return new long[]{ops, elapsed};
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Load generator for the {@link GameServer}: opens a number of connections, starts the sessions spread over
+ * them and plays random moves on every session in turn, replacing finished games. Reports the move round
+ * trip latency percentiles and the throughput over all connections.
+ *
+ * Without a port a server is started in this process:
+ * <pre>
+ * javac -d out/bench -sourcepath src bench/*.java
+ * java -cp out/bench ServerLoadTest [sessions [connections [moves per session [port]]]]
+ * </pre>
+ *
+ * @author Bram
+ */
+public class ServerLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int moves = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        GameServer server = null;
+        int port;
+        if (args.length > 3) {
+            port = Integer.parseInt(args[3]);
+        } else {
+            server = new GameServer(0);
+            server.start();
+            port = server.getPort();
+        }
+
+        ExecutorService clients = GameServer.newThreadPerTaskExecutor();
+        List<Future<Client>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            int first = i * sessions / connections;
+            int last = (i + 1) * sessions / connections;
+            Client client = new Client(port, last - first, moves, i);
+            futures.add(clients.submit(client::call));
+        }
+        Histogram latencies = new Histogram();
+        long games = 0;
+        for (Future<Client> future : futures) {
+            Client client = future.get();
+            latencies.merge(client.latencies);
+            games += client.games;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        clients.shutdown();
+
+        System.out.printf("%d sessions on %d connections, %d games, %d moves in %.2f s: %.0f moves/s%n", sessions,
+                connections, games, latencies.getCount(), seconds, latencies.getCount() / seconds);
+        System.out.printf("move latency us: p50=%.1f p99=%.1f max=%.1f%n", latencies.getValueAtPercentile(50) / 1e3,
+                latencies.getValueAtPercentile(99) / 1e3, latencies.getMax() / 1e3);
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    /**
+     * One connection playing its share of the sessions round robin.
+     */
+    private static class Client {
+
+        private final int port;
+        private final long[] ids;
+        private final int moves;
+        private final GameRandom random;
+        private final Histogram latencies = new Histogram();
+        private long games;
+
+        Client(int port, int sessions, int moves, long seed) {
+            this.port = port;
+            this.ids = new long[sessions];
+            this.moves = moves;
+            this.random = new GameRandom(seed);
+        }
+
+        Client call() throws IOException {
+            Direction[] directions = Direction.values();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                 Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII))) {
+                socket.setTcpNoDelay(true);
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = newGame(in, out);
+                }
+                for (int move = 0; move < moves; move++) {
+                    for (int i = 0; i < ids.length; i++) {
+                        long sent = System.nanoTime();
+                        String reply = send(in, out, "MOVE " + ids[i] + " " + directions[random.nextInt(4)]);
+                        latencies.record(System.nanoTime() - sent);
+                        // OK id score over exponents
+                        if (reply.split(" ", 5)[3].equals("1")) {
+                            send(in, out, "CLOSE " + ids[i]);
+                            ids[i] = newGame(in, out);
+                        }
+                    }
+                }
+            }
+            return this;
+        }
+
+        private long newGame(BufferedReader in, Writer out) throws IOException {
+            games++;
+            return Long.parseLong(send(in, out, "NEW 4 " + random.nextLong()).split(" ", 3)[1]);
+        }
+
+        private static String send(BufferedReader in, Writer out, String command) throws IOException {
+            out.write(command);
+            out.write('\n');
+            out.flush();
+            String reply = in.readLine();
+            if (reply == null || !reply.startsWith("OK")) {
+                throw new IOException(command + ": " + reply);
+            }
+            return reply;
+        }
+    }
+}
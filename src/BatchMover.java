@@ -0,0 +1,55 @@
+/**
+ * Applies one direction to many packed {@link BitBoard}s at once, for simulations that move huge numbers of
+ * independent games in lockstep. Besides the table driven {@link #SCALAR} mover there is a SIMD kernel,
+ * {@code VectorBatchMover}, for runtimes with the {@code jdk.incubator.vector} module.
+ *
+ * @author Bram
+ */
+@FunctionalInterface
+public interface BatchMover {
+
+    /**
+     * Moves {@code boards[0..count)} in {@code direction}. A board changed when {@code moved[i] != boards[i]}.
+     *
+     * @param moved  receives the boards after the move, without spawns; may be {@code boards} itself
+     * @param scores receives the points gained by every board
+     * @return the number of boards the move changed
+     */
+    int move(long[] boards, int count, Direction direction, long[] moved, int[] scores);
+
+    BatchMover SCALAR = (boards, count, direction, moved, scores) -> {
+        int changed = 0;
+        for (int i = 0; i < count; i++) {
+            long board = boards[i];
+            long result = BitBoard.move(board, direction);
+            scores[i] = BitBoard.score(board, direction);
+            moved[i] = result;
+            if (result != board) {
+                changed++;
+            }
+        }
+        return changed;
+    };
+
+    /**
+     * Returns a new SIMD kernel with {@code -Dgame.vector=true}, {@link #SCALAR} otherwise or when the kernel
+     * isn't available. The scalar mover is the default because it measured faster on Java 17.
+     */
+    static BatchMover create() {
+        BatchMover vector = Boolean.getBoolean("game.vector") ? vector() : null;
+        return vector != null ? vector : SCALAR;
+    }
+
+    /**
+     * Returns a new {@code VectorBatchMover}, or null unless it is on the class path and the runtime was
+     * started with {@code --add-modules jdk.incubator.vector}.
+     */
+    static BatchMover vector() {
+        try {
+            return (BatchMover) Class.forName("VectorBatchMover").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // no vector module at run time, or the kernel wasn't built
+            return null;
+        }
+    }
+}
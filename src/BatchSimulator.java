@@ -0,0 +1,186 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+/**
+ * Headless batch runner: plays many games on {@link BitBoard}s with a {@link Strategy}, split over a
+ * fork-join pool. Every task gets its own split of the seeded random generator, so a run is reproducible
+ * whatever the number of threads.
+ *
+ * With {@code --record}, every move of every game is streamed to a {@link TrajectoryWriter} file, each
+ * thread collecting its own blocks, which the writer compresses on its own threads. {@code --level} sets
+ * the {@link java.util.zip.Deflater} level, 0 to store the blocks uncompressed.
+ *
+ * Usage: {@code BatchSimulator [--games n] [--strategy random|greedy|ntuple|<class>] [--seed s] [--threads t]
+ * [--record file [--level 0-9]]}
+ *
+ * @author Bram
+ */
+public class BatchSimulator {
+
+    private static final int GAMES_PER_TASK = 64;
+
+    private final Supplier<Strategy> strategies;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<TrajectoryWriter.Recorder> recorders;
+
+    public BatchSimulator(Supplier<Strategy> strategies, int threads) {
+        this(strategies, threads, null);
+    }
+
+    /**
+     * @param trajectories receives every move played, or null
+     */
+    public BatchSimulator(Supplier<Strategy> strategies, int threads, TrajectoryWriter trajectories) {
+        this.strategies = strategies;
+        this.pool = new ForkJoinPool(threads);
+        this.recorders = trajectories == null ? null : ThreadLocal.withInitial(trajectories::recorder);
+    }
+
+    public SimulationStats run(int games, long seed) {
+        return pool.invoke(new GamesTask(games, new GameRandom(seed)));
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Plays a game to the end and records it.
+     *
+     * @return the number of moves played
+     */
+    public static int playGame(Strategy strategy, GameRandom random, SimulationStats stats) {
+        return playGame(strategy, random, stats, null);
+    }
+
+    /**
+     * Plays a game to the end and records it, with every move in {@code recorder} if it isn't null.
+     *
+     * @return the number of moves played
+     */
+    public static int playGame(Strategy strategy, GameRandom random, SimulationStats stats,
+                               TrajectoryWriter.Recorder recorder) {
+        long board = BitBoard.newGame(random);
+        int score = 0;
+        int moves = 0;
+        if (recorder != null) {
+            recorder.startGame();
+        }
+        Direction direction;
+        while ((direction = strategy.nextMove(board, random)) != null) {
+            long moved = BitBoard.move(board, direction);
+            if (moved == board) {
+                break;
+            }
+            int points = BitBoard.score(board, direction);
+            score += points;
+            long spawned = BitBoard.spawnTile(moved, random);
+            if (recorder != null) {
+                int cell = spawned == moved ? -1 : Long.numberOfTrailingZeros(spawned ^ moved) >>> 2;
+                recorder.record(board, direction, points, cell, cell < 0 ? 0 : (int) (spawned >>> (4 * cell)) & 0xF);
+            }
+            board = spawned;
+            moves++;
+        }
+        if (recorder != null) {
+            recorder.endGame(!BitBoard.canMove(board));
+        }
+        stats.record(score, BitBoard.maxExponent(board), moves);
+        return moves;
+    }
+
+    @SuppressWarnings("serial")
+    private class GamesTask extends RecursiveTask<SimulationStats> {
+
+        private final int games;
+        private final GameRandom random;
+
+        GamesTask(int games, GameRandom random) {
+            this.games = games;
+            this.random = random;
+        }
+
+        @Override
+        protected SimulationStats compute() {
+            if (games <= GAMES_PER_TASK) {
+                SimulationStats stats = new SimulationStats();
+                Strategy strategy = strategies.get();
+                TrajectoryWriter.Recorder recorder = recorders == null ? null : recorders.get();
+                for (int i = 0; i < games; i++) {
+                    playGame(strategy, random, stats, recorder);
+                }
+                return stats;
+            }
+            GamesTask left = new GamesTask(games / 2, random.split());
+            GamesTask right = new GamesTask(games - games / 2, random);
+            left.fork();
+            SimulationStats stats = right.compute();
+            return stats.merge(left.join());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int games = 100_000;
+        String strategyName = "random";
+        long seed = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path record = null;
+        int level = TrajectoryWriter.DEFAULT_LEVEL;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--games":
+                    games = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--strategy":
+                    strategyName = args[i + 1];
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--record":
+                    record = Paths.get(args[i + 1]);
+                    break;
+                case "--level":
+                    level = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        final String name = strategyName;
+        // the built-in strategies are shared, the network mapped once; only a class gets an instance per task
+        Strategy shared = "ntuple".equalsIgnoreCase(name) || "random".equalsIgnoreCase(name)
+                || "greedy".equalsIgnoreCase(name) ? Strategy.forName(name) : null;
+        TrajectoryWriter trajectories = record == null ? null : new TrajectoryWriter(record, level);
+        BatchSimulator simulator = new BatchSimulator(shared != null ? () -> shared : () -> Strategy.forName(name),
+                threads, trajectories);
+        long start = System.nanoTime();
+        SimulationStats stats = simulator.run(games, seed);
+        if (trajectories != null) {
+            trajectories.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        simulator.shutdown();
+        if (shared instanceof NTupleNetwork) {
+            ((NTupleNetwork) shared).close();
+        }
+
+        System.out.printf("strategy=%s seed=%d threads=%d%n", strategyName, seed, threads);
+        stats.print(System.out);
+        System.out.printf("%.2f s, %.0f games/s, %.0f moves/s%n", seconds, stats.getGames() / seconds,
+                stats.getTotalMoves() / seconds);
+        if (trajectories != null) {
+            System.out.printf("recorded %d moves in %d blocks to %s: %d bytes, %.2f bytes/move%n",
+                    trajectories.getRows(), trajectories.getBlocks(), record, trajectories.getBytes(),
+                    (double) trajectories.getBytes() / trajectories.getRows());
+        }
+    }
+}
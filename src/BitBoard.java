@@ -0,0 +1,429 @@
+/**
+ * Packed 4x4 board: every cell is a 4 bit tile exponent (0 = empty, 1 = 2, 2 = 4, ...) stored in a single
+ * {@code long}. Cell (x, y) lives in nibble {@code y * 4 + x}, so each row is one 16 bit word.
+ * All moves are resolved through precomputed row and column tables.
+ *
+ * @author Bram
+ */
+public final class BitBoard {
+
+    public static final int SIZE = 4;
+    public static final int CELLS = SIZE * SIZE;
+    public static final int MAX_EXPONENT = 15;
+
+    /**
+     * Spawn rules, see {@link GameEngine#spawnRandomTile()} and {@link GameEngine#startGame(long)}.
+     */
+    public static final double PROBABILITY_OF_TWO = 0.9;
+    public static final double PROBABILITY_OF_SECOND_TILE = 0.8;
+
+    /**
+     * Per source cell flags in the targets tables (4 bits per source cell): bits 0-1 hold the target
+     * index along the line, bit 2 is set when the tile is absorbed by a merge and bit 3 when it is the
+     * tile that survives a merge. {@link #slideLine} reports the same flags shifted by {@link #FLAG_SHIFT}.
+     */
+    public static final int TARGET_MASK = 0x3;
+    public static final int ABSORBED = 0x4;
+    public static final int SURVIVOR = 0x8;
+    public static final int FLAG_SHIFT = 16;
+
+    /**
+     * Rotations and reflections of the board. Symmetry {@code s} mirrors x if bit 0 is set, then y if bit 1
+     * is set, then swaps x and y if bit 2 is set; every symmetry is its own inverse except 5 and 6, which
+     * are each other's.
+     */
+    public static final int SYMMETRIES = 8;
+
+    private static final long COL_MASK = 0x000F_000F_000F_000FL;
+
+    private static final Direction[][] DIRECTION_SYMMETRIES = new Direction[SYMMETRIES][];
+
+    private static final char[] ROW_LEFT = new char[65536];
+    private static final char[] ROW_RIGHT = new char[65536];
+    private static final long[] COL_UP = new long[65536];
+    private static final long[] COL_DOWN = new long[65536];
+    private static final int[] SCORE_LEFT = new int[65536];
+    private static final int[] SCORE_RIGHT = new int[65536];
+    private static final char[] TARGETS_LEFT = new char[65536];
+    private static final char[] TARGETS_RIGHT = new char[65536];
+
+    static {
+        int[] line = new int[SIZE];
+        int[] result = new int[SIZE];
+        int[] targets = new int[SIZE];
+        for (int row = 0; row < 65536; row++) {
+            for (int i = 0; i < SIZE; i++) {
+                line[i] = (row >>> (4 * i)) & 0xF;
+            }
+            SCORE_LEFT[row] = slideLine(line, result, targets, MAX_EXPONENT);
+            int left = 0;
+            int leftTargets = 0;
+            for (int i = 0; i < SIZE; i++) {
+                left |= result[i] << (4 * i);
+                leftTargets |= nibble(targets[i]) << (4 * i);
+            }
+            ROW_LEFT[row] = (char) left;
+            TARGETS_LEFT[row] = (char) leftTargets;
+            COL_UP[row] = unpackColumn(left);
+
+            int reversed = reverseRow(row);
+            for (int i = 0; i < SIZE; i++) {
+                line[i] = (reversed >>> (4 * i)) & 0xF;
+            }
+            SCORE_RIGHT[row] = slideLine(line, result, targets, MAX_EXPONENT);
+            int right = 0;
+            int rightTargets = 0;
+            for (int i = 0; i < SIZE; i++) {
+                int source = SIZE - 1 - i;
+                right |= result[i] << (4 * source);
+                if (line[i] != 0) {
+                    int t = nibble(targets[i]);
+                    rightTargets |= ((t & ~TARGET_MASK) | (SIZE - 1 - (t & TARGET_MASK))) << (4 * source);
+                }
+            }
+            ROW_RIGHT[row] = (char) right;
+            TARGETS_RIGHT[row] = (char) rightTargets;
+            COL_DOWN[row] = unpackColumn(right);
+        }
+
+        Direction[] swapped = {Direction.LEFT, Direction.DOWN, Direction.RIGHT, Direction.UP};
+        for (int s = 0; s < SYMMETRIES; s++) {
+            DIRECTION_SYMMETRIES[s] = new Direction[Direction.values().length];
+            for (Direction direction : Direction.values()) {
+                Direction image = direction;
+                if ((s & 1) != 0 && image.getX() != 0) {
+                    image = image == Direction.LEFT ? Direction.RIGHT : Direction.LEFT;
+                }
+                if ((s & 2) != 0 && image.getY() != 0) {
+                    image = image == Direction.UP ? Direction.DOWN : Direction.UP;
+                }
+                if ((s & 4) != 0) {
+                    image = swapped[image.ordinal()];
+                }
+                DIRECTION_SYMMETRIES[s][direction.ordinal()] = image;
+            }
+        }
+    }
+
+    private BitBoard() {
+    }
+
+    /**
+     * Slides a line towards index 0 following the game rules: every tile merges at most once per move and
+     * the tile closest to the wall survives the merge. Tiles at {@code maxExponent} never merge.
+     *
+     * @param line    tile exponents, left untouched
+     * @param result  receives the line after the move
+     * @param targets receives per source index {@code target | flags << FLAG_SHIFT}, with
+     *                {@link #ABSORBED}/{@link #SURVIVOR} as flags
+     * @return the score gained by the merges
+     */
+    public static int slideLine(int[] line, int[] result, int[] targets, int maxExponent) {
+        return slideLine(line, 0, 1, line.length, result, targets, maxExponent);
+    }
+
+    /**
+     * Strided variant of {@link #slideLine(int[], int[], int[], int)}, reading {@code length} cells of
+     * {@code cells} starting at {@code offset} every {@code stride}. Result and targets are indexed along
+     * the line.
+     */
+    public static int slideLine(int[] cells, int offset, int stride, int length, int[] result, int[] targets,
+                                int maxExponent) {
+        int score = 0;
+        int write = 0;
+        int open = -1;
+        for (int read = 0; read < length; read++) {
+            result[read] = 0;
+            int value = cells[offset + read * stride];
+            if (value == 0) {
+                targets[read] = 0;
+                continue;
+            }
+            if (open >= 0 && result[write - 1] == value && value < maxExponent) {
+                result[write - 1] = value + 1;
+                score += 1 << (value + 1);
+                targets[read] = (write - 1) | (ABSORBED << FLAG_SHIFT);
+                targets[open] |= SURVIVOR << FLAG_SHIFT;
+                open = -1;
+            } else {
+                result[write] = value;
+                targets[read] = write;
+                open = read;
+                write++;
+            }
+        }
+        return score;
+    }
+
+    public static long move(long board, Direction direction) {
+        switch (direction) {
+            case LEFT:
+                return (long) ROW_LEFT[(int) (board & 0xFFFF)]
+                        | (long) ROW_LEFT[(int) ((board >>> 16) & 0xFFFF)] << 16
+                        | (long) ROW_LEFT[(int) ((board >>> 32) & 0xFFFF)] << 32
+                        | (long) ROW_LEFT[(int) (board >>> 48)] << 48;
+            case RIGHT:
+                return (long) ROW_RIGHT[(int) (board & 0xFFFF)]
+                        | (long) ROW_RIGHT[(int) ((board >>> 16) & 0xFFFF)] << 16
+                        | (long) ROW_RIGHT[(int) ((board >>> 32) & 0xFFFF)] << 32
+                        | (long) ROW_RIGHT[(int) (board >>> 48)] << 48;
+            case UP:
+                return COL_UP[column(board, 0)]
+                        | COL_UP[column(board, 1)] << 4
+                        | COL_UP[column(board, 2)] << 8
+                        | COL_UP[column(board, 3)] << 12;
+            default:
+                return COL_DOWN[column(board, 0)]
+                        | COL_DOWN[column(board, 1)] << 4
+                        | COL_DOWN[column(board, 2)] << 8
+                        | COL_DOWN[column(board, 3)] << 12;
+        }
+    }
+
+    public static int score(long board, Direction direction) {
+        int[] table = direction == Direction.LEFT || direction == Direction.UP ? SCORE_LEFT : SCORE_RIGHT;
+        int score = 0;
+        for (int i = 0; i < SIZE; i++) {
+            score += table[line(board, direction, i)];
+        }
+        return score;
+    }
+
+    /**
+     * Returns the 16 bit key of line {@code index} for the given direction: a row for LEFT/RIGHT, a column
+     * for UP/DOWN, with nibble 0 holding x = 0 (resp. y = 0).
+     */
+    public static int line(long board, Direction direction, int index) {
+        if (direction == Direction.LEFT || direction == Direction.RIGHT) {
+            return (int) ((board >>> (16 * index)) & 0xFFFF);
+        }
+        return column(board, index);
+    }
+
+    /**
+     * Returns the packed targets of a line for the given direction: per source nibble the target index along
+     * the line plus {@link #ABSORBED}/{@link #SURVIVOR} flags. Empty cells report zero.
+     */
+    public static int targets(int line, Direction direction) {
+        return direction == Direction.LEFT || direction == Direction.UP ? TARGETS_LEFT[line] : TARGETS_RIGHT[line];
+    }
+
+    /**
+     * Returns the line after sliding it towards nibble 0.
+     */
+    public static int slideRow(int line) {
+        return ROW_LEFT[line];
+    }
+
+    public static int slideScore(int line) {
+        return SCORE_LEFT[line];
+    }
+
+    /**
+     * Returns the packed targets of sliding a line towards nibble 0, see {@link #targets(int, Direction)}.
+     */
+    public static int slideTargets(int line) {
+        return TARGETS_LEFT[line];
+    }
+
+    public static int get(long board, int x, int y) {
+        return (int) ((board >>> (4 * (y * SIZE + x))) & 0xF);
+    }
+
+    public static long set(long board, int x, int y, int exponent) {
+        int shift = 4 * (y * SIZE + x);
+        return (board & ~(0xFL << shift)) | ((long) exponent << shift);
+    }
+
+    public static int countEmpty(long board) {
+        long occupied = board | (board >>> 1);
+        occupied |= occupied >>> 2;
+        return CELLS - Long.bitCount(occupied & 0x1111_1111_1111_1111L);
+    }
+
+    /**
+     * Returns a mask with bit {@code i} set for every empty cell {@code i}.
+     */
+    public static int emptyMask(long board) {
+        long occupied = board | (board >>> 1);
+        occupied |= occupied >>> 2;
+        occupied &= 0x1111_1111_1111_1111L;
+        int mask = 0;
+        for (int i = 0; i < CELLS; i++) {
+            if ((occupied & (1L << (4 * i))) == 0) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Adds a 2 (90%) or a 4 on a random empty cell. A full board is returned unchanged.
+     */
+    public static long spawnTile(long board, GameRandom random) {
+        int empty = emptyMask(board);
+        if (empty == 0) {
+            return board;
+        }
+        int cell = nthSetBit(empty, random.nextInt(Integer.bitCount(empty)));
+        int exponent = random.nextDouble() < PROBABILITY_OF_TWO ? 1 : 2;
+        return board | (long) exponent << (4 * cell);
+    }
+
+    /**
+     * Returns a starting board: one random tile, plus a second one 80% of the time, never two 4s.
+     */
+    public static long newGame(GameRandom random) {
+        long board = spawnTile(0, random);
+        if (random.nextDouble() <= PROBABILITY_OF_SECOND_TILE) {
+            long added = spawnTile(board, random) ^ board;
+            if (maxExponent(board) == 2 && maxExponent(added) == 2) {
+                added >>>= 1;
+            }
+            board |= added;
+        }
+        return board;
+    }
+
+    public static int nthSetBit(int mask, int n) {
+        for (int i = 0; i < n; i++) {
+            mask &= mask - 1;
+        }
+        return Integer.numberOfTrailingZeros(mask);
+    }
+
+    public static int maxExponent(long board) {
+        int max = 0;
+        for (int i = 0; i < CELLS; i++) {
+            max = Math.max(max, (int) ((board >>> (4 * i)) & 0xF));
+        }
+        return max;
+    }
+
+    public static boolean canMove(long board) {
+        for (Direction direction : Direction.values()) {
+            if (move(board, direction) != board) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static long transpose(long board) {
+        long a1 = board & 0xF0F0_0F0F_F0F0_0F0FL;
+        long a2 = board & 0x0000_F0F0_0000_F0F0L;
+        long a3 = board & 0x0F0F_0000_0F0F_0000L;
+        long a = a1 | (a2 << 12) | (a3 >>> 12);
+        long b1 = a & 0xFF00_FF00_00FF_00FFL;
+        long b2 = a & 0x00FF_00FF_0000_0000L;
+        long b3 = a & 0x0000_0000_FF00_FF00L;
+        return b1 | (b2 >>> 24) | (b3 << 24);
+    }
+
+    /**
+     * Reverses every row.
+     */
+    public static long mirror(long board) {
+        long a = ((board >>> 4) & 0x0F0F_0F0F_0F0F_0F0FL) | ((board & 0x0F0F_0F0F_0F0F_0F0FL) << 4);
+        return ((a >>> 8) & 0x00FF_00FF_00FF_00FFL) | ((a & 0x00FF_00FF_00FF_00FFL) << 8);
+    }
+
+    /**
+     * Reverses the order of the rows.
+     */
+    public static long flip(long board) {
+        long a = Long.reverseBytes(board);
+        return ((a >>> 8) & 0x00FF_00FF_00FF_00FFL) | ((a & 0x00FF_00FF_00FF_00FFL) << 8);
+    }
+
+    /**
+     * Applies symmetry {@code s} (see {@link #SYMMETRIES}) to the board.
+     */
+    public static long symmetry(long board, int s) {
+        if ((s & 1) != 0) {
+            board = mirror(board);
+        }
+        if ((s & 2) != 0) {
+            board = flip(board);
+        }
+        return (s & 4) != 0 ? transpose(board) : board;
+    }
+
+    /**
+     * Returns the symmetry taking the board to its canonical form, the smallest of its 8 images.
+     */
+    public static int canonicalSymmetry(long board) {
+        long transposed = transpose(board);
+        long best = board;
+        int symmetry = 0;
+        for (int s = 1; s < SYMMETRIES; s++) {
+            // transposing after mirroring x is mirroring y after transposing, and the other way around
+            long image = (s & 4) != 0 ? symmetry(transposed, (s & 1) << 1 | (s & 2) >> 1) : symmetry(board, s);
+            if (Long.compareUnsigned(image, best) < 0) {
+                best = image;
+                symmetry = s;
+            }
+        }
+        return symmetry;
+    }
+
+    /**
+     * Returns the direction that moves the image of a board under symmetry {@code s} like {@code direction}
+     * moves the board itself.
+     */
+    public static Direction symmetry(Direction direction, int s) {
+        return DIRECTION_SYMMETRIES[s][direction.ordinal()];
+    }
+
+    /**
+     * Returns the symmetry undoing symmetry {@code s}.
+     */
+    public static int inverseSymmetry(int s) {
+        return s == 5 || s == 6 ? s ^ 3 : s;
+    }
+
+    public static long fromValues(int[] values) {
+        long board = 0;
+        for (int i = 0; i < CELLS; i++) {
+            board |= (long) exponentOf(values[i]) << (4 * i);
+        }
+        return board;
+    }
+
+    public static int exponentOf(int value) {
+        return value == 0 ? 0 : Integer.numberOfTrailingZeros(value);
+    }
+
+    public static int valueOf(int exponent) {
+        return exponent == 0 ? 0 : 1 << exponent;
+    }
+
+    public static String toString(long board) {
+        StringBuilder sb = new StringBuilder();
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                sb.append(String.format("%6d", valueOf(get(board, x, y))));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static int column(long board, int x) {
+        long col = (board >>> (4 * x)) & COL_MASK;
+        return (int) ((col | (col >>> 12) | (col >>> 24) | (col >>> 36)) & 0xFFFF);
+    }
+
+    private static int nibble(int target) {
+        return (target & TARGET_MASK) | (target >>> FLAG_SHIFT);
+    }
+
+    private static long unpackColumn(int row) {
+        long r = row;
+        return (r | (r << 12) | (r << 24) | (r << 36)) & COL_MASK;
+    }
+
+    private static int reverseRow(int row) {
+        return ((row >>> 12) & 0xF) | ((row >>> 4) & 0xF0) | ((row << 4) & 0xF00) | ((row << 12) & 0xF000);
+    }
+}
@@ -6,6 +6,7 @@ import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.geometry.Pos;
 import javafx.scene.Group;
+import javafx.scene.Node;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.layout.HBox;
@@ -13,6 +14,11 @@ import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
 /**
  * (File info).
  *
@@ -23,6 +29,7 @@ public class Board extends Group {
     private static final int BORDER_WIDTH = 8;
     private static final int TOP_HEIGHT = 92;
     private static final int GAP_HEIGHT = 50;
+    private static final String[] HINT_ARROWS = {"\u2191", "\u2192", "\u2193", "\u2190"};
 
     /**
      * Properties
@@ -32,6 +39,10 @@ public class Board extends Group {
     private final BooleanProperty layerOnProperty = new SimpleBooleanProperty(false);
     private final BooleanProperty resetGame = new SimpleBooleanProperty(false);
     private final BooleanProperty clearGame = new SimpleBooleanProperty(false);
+    private final BooleanProperty saveGame = new SimpleBooleanProperty(false);
+    private final BooleanProperty restoreGame = new SimpleBooleanProperty(false);
+    private final BooleanProperty undoGame = new SimpleBooleanProperty(false);
+    private final BooleanProperty redoGame = new SimpleBooleanProperty(false);
 
 
     private final HBox overlay = new HBox();
@@ -39,26 +50,56 @@ public class Board extends Group {
     private final Label lOvrText= new Label();
     private final Label lOvrSubText= new Label();
     private final HBox buttonsOverlay = new HBox();
+    private final Label lHint = new Label();
     private final Button bTry = new Button("Try again");
     private final Button bContinue = new Button("Keep going");
     private final Button bContinueNo = new Button("No, keep going");
     private final Button bSave = new Button("Save");
     private final Button bRestore = new Button("Restore");
+    private final Button bUndo = new Button("Undo");
+    private final Button bRedo = new Button("Redo");
     private final Button bQuit = new Button("Quit");
 
     private final VBox vgame = new VBox(0);
     private final Group gridGroup = new Group();
+    private final Deque<Tile> tilePool = new ArrayDeque<>();
+    private long tilesCreated;
     private final GridOperator gridOperator;
     private final int gridWidth;
 
+    /**
+     * The tile shown on every cell, and the tiles of the running move animation
+     */
+    private final Tile[] tiles;
+    private final Tile[] slidingTiles;
+    private final Tile[] absorbedTiles;
+    private final Tile[] survivingTiles;
+    private int merges;
+    private final TileAnimator animator;
+
     private final Overlay gameOverListener = new Overlay("Game over!", "", bTry, null, "game-overlay-over", "game-lblOver", false);
 
     public Board(GridOperator gridOperator) {
+        this(gridOperator, null);
+    }
+
+    /**
+     * @param renderer when not null, the grid and tiles are painted by this canvas instead of one node per cell
+     */
+    public Board(GridOperator gridOperator, CanvasRenderer renderer) {
         this.gridOperator = gridOperator;
         gridWidth = CELL_SIZE * gridOperator.getGridSize() + BORDER_WIDTH * 2;
-
-        createGrid();
+        int cells = gridOperator.getGridSize() * gridOperator.getGridSize();
+        tiles = new Tile[cells];
+        slidingTiles = new Tile[cells];
+        absorbedTiles = new Tile[cells];
+        survivingTiles = new Tile[cells];
+        animator = new TileAnimator(cells);
+
+        createGrid(renderer);
         getChildren().add(gridGroup);
+        createHint();
+        createToolbar();
 
         initGameProperties();
     }
@@ -74,11 +115,15 @@ public class Board extends Group {
         return cell;
     }
 
-    private void createGrid() {
-        gridOperator.traverseGrid((i, j) -> {
-            gridGroup.getChildren().add(createCell(i, j));
-            return 0;
-        });
+    private void createGrid(CanvasRenderer renderer) {
+        if (renderer != null) {
+            gridGroup.getChildren().add(renderer);
+        } else {
+            gridOperator.traverseGrid((i, j) -> {
+                gridGroup.getChildren().add(createCell(i, j));
+                return 0;
+            });
+        }
 
         gridGroup.getStyleClass().add("game-grid");
         gridGroup.setManaged(false);
@@ -97,33 +142,210 @@ public class Board extends Group {
 //        getChildren().add(hBottom);
     }
 
-    public void addTile(Tile tile) {
-        double layoutX = tile.getLocation().getLayoutX(CELL_SIZE) - (tile.getMinWidth() / 2);
-        double layoutY = tile.getLocation().getLayoutY(CELL_SIZE) - (tile.getMinHeight() / 2);
+    private void createHint() {
+        lHint.getStyleClass().add("game-hint");
+        lHint.setMinSize(gridWidth, gridWidth);
+        lHint.setAlignment(Pos.CENTER);
+        lHint.setMouseTransparent(true);
+        lHint.setVisible(false);
+        getChildren().add(lHint);
+    }
 
-        tile.setLayoutX(layoutX);
-        tile.setLayoutY(layoutY);
+    /**
+     * Shows an arrow for the suggested move over the grid, or hides it when {@code direction} is null.
+     */
+    public void showHint(Direction direction) {
+        lHint.setVisible(direction != null);
+        if (direction != null) {
+            lHint.setText(HINT_ARROWS[direction.ordinal()]);
+        }
+    }
 
-        gridGroup.getChildren().add(tile);
+    private void createToolbar() {
+        HBox toolbar = new HBox(10);
+        toolbar.setAlignment(Pos.CENTER);
+        toolbar.setMinWidth(gridWidth);
+        toolbar.setTranslateY(gridWidth);
+
+        bSave.getStyleClass().add("game-button");
+        bSave.setOnAction(e -> toggle(saveGame));
+        bRestore.getStyleClass().add("game-button");
+        bRestore.setOnAction(e -> toggle(restoreGame));
+        bUndo.getStyleClass().add("game-button");
+        bUndo.setOnAction(e -> toggle(undoGame));
+        bRedo.getStyleClass().add("game-button");
+        bRedo.setOnAction(e -> toggle(redoGame));
+        toolbar.getChildren().addAll(bUndo, bRedo, bSave, bRestore);
+
+        getChildren().add(toolbar);
     }
 
-    public Tile addRandomTile(Location randomLocation) {
-        Tile tile = Tile.newRandomTile();
-        tile.setLocation(randomLocation);
+    private void toggle(BooleanProperty property) {
+        property.set(false);
+        property.set(true);
+        getParent().requestFocus();
+    }
 
+    public void addTile(Tile tile) {
         double layoutX = tile.getLocation().getLayoutX(CELL_SIZE) - (tile.getMinWidth() / 2);
         double layoutY = tile.getLocation().getLayoutY(CELL_SIZE) - (tile.getMinHeight() / 2);
 
         tile.setLayoutX(layoutX);
         tile.setLayoutY(layoutY);
+
+        if (tile.getParent() != gridGroup) {
+            gridGroup.getChildren().add(tile);
+        }
+    }
+
+    /**
+     * Shows a pooled tile with the given value at the location.
+     */
+    public Tile addTile(Location location, int value) {
+        Tile tile = obtainTile(value);
+        tile.setLocation(location);
+        addTile(tile);
+        return tile;
+    }
+
+    public Tile addRandomTile(Location randomLocation, int value) {
+        Tile tile = addTile(randomLocation, value);
         tile.setScaleX(0);
         tile.setScaleY(0);
 
-        gridGroup.getChildren().add(tile);
+        return tile;
+    }
 
+    /**
+     * Takes a hidden tile from the pool, or creates one when the pool is empty. Tiles stay children of the
+     * grid for their whole life, they are only hidden while pooled.
+     */
+    private Tile obtainTile(int value) {
+        Tile tile = tilePool.poll();
+        if (tile == null) {
+            tilesCreated++;
+            return Tile.newTile(value);
+        }
+        tile.reset(value);
+        tile.setVisible(true);
         return tile;
     }
 
+    /**
+     * Returns the number of tiles created so far because the pool was empty.
+     */
+    public long getTilesCreated() {
+        return tilesCreated;
+    }
+
+    /**
+     * Hides the tile and keeps it for reuse.
+     */
+    public void recycleTile(Tile tile) {
+        tile.setVisible(false);
+        tile.setLocation(null);
+        tilePool.push(tile);
+    }
+
+    /**
+     * Shows a whole board, recycling or adding only the tiles whose value changed.
+     */
+    public void showBoard(MoveDiff board) {
+        finishAnimation();
+        for (int cell = 0; cell < tiles.length; cell++) {
+            Tile tile = tiles[cell];
+            int exponent = board.getExponent(cell);
+            if (tile != null && exponent != 0 && tile.getValue() == BitBoard.valueOf(exponent)) {
+                continue;
+            }
+            if (tile != null) {
+                recycleTile(tile);
+                tiles[cell] = null;
+            }
+            if (exponent != 0) {
+                tiles[cell] = addTile(gridOperator.getLocation(cell), BitBoard.valueOf(exponent));
+            }
+        }
+    }
+
+    /**
+     * Animates the slides and merges of a move, touching only the tiles in the diff, then runs
+     * {@code onFinished}. The spawn is left to {@link #animateSpawn}.
+     */
+    public void animateMove(MoveDiff move, Runnable onFinished) {
+        animator.begin();
+        int slides = move.getSlides();
+        merges = move.getMerges();
+
+        // lift every moving tile off the grid first, so chained slides don't overwrite each other
+        for (int i = 0; i < slides; i++) {
+            slidingTiles[i] = tiles[move.getSlideFrom(i)];
+            tiles[move.getSlideFrom(i)] = null;
+        }
+        for (int i = 0; i < merges; i++) {
+            absorbedTiles[i] = tiles[move.getMergeFrom(i)];
+            survivingTiles[i] = tiles[move.getMergeInto(i)];
+            tiles[move.getMergeFrom(i)] = null;
+            tiles[move.getMergeInto(i)] = null;
+        }
+
+        for (int i = 0; i < slides; i++) {
+            Tile tile = slidingTiles[i];
+            Location to = gridOperator.getLocation(move.getSlideTo(i));
+            animator.addSlide(tile, to);
+            tile.setLocation(to);
+            tiles[move.getSlideTo(i)] = tile;
+        }
+        for (int i = 0; i < merges; i++) {
+            Tile absorbed = absorbedTiles[i];
+            Tile survivor = survivingTiles[i];
+            Location to = gridOperator.getLocation(move.getMergeTo(i));
+            animator.addSlide(absorbed, to);
+            if (move.getMergeInto(i) != move.getMergeTo(i)) {
+                animator.addSlide(survivor, to);
+            }
+            survivor.merge(absorbed);
+            survivor.setLocation(to);
+            survivor.toFront();
+            animator.addMerge(survivor);
+            tiles[move.getMergeTo(i)] = survivor;
+        }
+
+        animator.play(() -> {
+            for (int i = 0; i < merges; i++) {
+                recycleTile(absorbedTiles[i]);
+                absorbedTiles[i] = null;
+                survivingTiles[i] = null;
+            }
+            merges = 0;
+            onFinished.run();
+        });
+    }
+
+    /**
+     * Pops a new tile in, then runs {@code onFinished}.
+     */
+    public void animateSpawn(int cell, int value, Runnable onFinished) {
+        Tile tile = addRandomTile(gridOperator.getLocation(cell), value);
+        tiles[cell] = tile;
+        animator.begin();
+        animator.addSpawn(tile);
+        animator.play(onFinished);
+    }
+
+    public boolean isAnimating() {
+        return animator.isRunning();
+    }
+
+    /**
+     * Jumps to the end of the running animation, and of any animation it starts when done.
+     */
+    public void finishAnimation() {
+        while (animator.isRunning()) {
+            animator.finish();
+        }
+    }
+
     public Group getGridGroup() {
         return gridGroup;
     }
@@ -167,8 +389,32 @@ public class Board extends Group {
         resetGame.set(true);
     }
 
+    /**
+     * Recycles every visible tile.
+     */
+    public void clearTiles() {
+        finishAnimation();
+        Arrays.fill(tiles, null);
+        List<Node> children = gridGroup.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+            Node child = children.get(i);
+            if (child instanceof Tile && child.isVisible()) {
+                recycleTile((Tile) child);
+            }
+        }
+    }
+
+    /**
+     * Removes the overlay, if shown, without starting a new game.
+     */
+    public void clearOverlay() {
+        getChildren().removeAll(overlay, buttonsOverlay);
+        gameOverProperty.set(false);
+        layerOnProperty.set(false);
+    }
+
     private void doClearGame() {
-        gridGroup.getChildren().removeIf(c -> c instanceof Tile);
+        clearTiles();
         getChildren().removeAll(overlay, buttonsOverlay);
 
         clearGame.set(false);
@@ -188,6 +434,22 @@ public class Board extends Group {
         return clearGame;
     }
 
+    public BooleanProperty saveGameProperty() {
+        return saveGame;
+    }
+
+    public BooleanProperty restoreGameProperty() {
+        return restoreGame;
+    }
+
+    public BooleanProperty undoGameProperty() {
+        return undoGame;
+    }
+
+    public BooleanProperty redoGameProperty() {
+        return redoGame;
+    }
+
     public BooleanProperty isLayerOn() {
         return layerOnProperty;
     }
@@ -0,0 +1,241 @@
+import javafx.animation.AnimationTimer;
+import javafx.geometry.VPos;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+import javafx.scene.text.TextAlignment;
+
+/**
+ * Alternative to one {@link Tile} node per tile: paints the whole board on a single canvas from tile images
+ * rasterized once per value, and animates slides, merges and spawns itself from one {@link AnimationTimer}.
+ * Colours and fonts come from {@code game.css}.
+ *
+ * @author Bram
+ */
+public class CanvasRenderer extends Canvas {
+
+    private final int gridSize;
+    private final int tileSize = Board.CELL_SIZE - 13;
+    private final GraphicsContext gc;
+    private final Image[] tileImages = new Image[GameEngine.MAX_EXPONENT + 1];
+    private final Color backgroundColor;
+    private final Color cellColor;
+
+    /**
+     * Current board and the running animation: tiles sliding from/to a cell, with their flags
+     */
+    private final int[] exponents;
+    private final int[] slideFrom;
+    private final int[] slideTo;
+    private final int[] slideExponent;
+    private final int[] slideFlags;
+    private final boolean[] animatedCell;
+    private int slides;
+    private int spawnCell = -1;
+    private double animationMillis;
+    private long animationStart;
+    private Runnable onFinished;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (animationStart < 0) {
+                animationStart = now;
+            }
+            double elapsed = (now - animationStart) / 1e6;
+            if (elapsed >= animationMillis) {
+                finishAnimation();
+            } else {
+                paint(elapsed);
+            }
+        }
+    };
+
+    public CanvasRenderer(GridOperator gridOperator) {
+        super(gridOperator.getGridSize() * Board.CELL_SIZE, gridOperator.getGridSize() * Board.CELL_SIZE);
+        this.gridSize = gridOperator.getGridSize();
+        this.gc = getGraphicsContext2D();
+        int cells = gridSize * gridSize;
+        exponents = new int[cells];
+        slideFrom = new int[cells];
+        slideTo = new int[cells];
+        slideExponent = new int[cells];
+        slideFlags = new int[cells];
+        animatedCell = new boolean[cells];
+
+        TileStyles styles = TileStyles.load();
+        backgroundColor = Color.web(styles.get(".game-backGrid", "-fx-background-color", "#bbada0"));
+        cellColor = Color.web(styles.get(".game-grid-cell", "-fx-fill", "#cdc1b4"));
+        String fontFamily = styles.get(".game-label", "-fx-font-family", "System").replace("'", "");
+        for (int exponent = 1; exponent < tileImages.length; exponent++) {
+            tileImages[exponent] = rasterizeTile(styles, fontFamily, BitBoard.valueOf(exponent));
+        }
+    }
+
+    private Image rasterizeTile(TileStyles styles, String fontFamily, int value) {
+        Canvas canvas = new Canvas(tileSize, tileSize);
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        double radius = 2 * TileStyles.size(styles.getTile(value, "-fx-background-radius", "3"));
+        g.setFill(Color.web(styles.getTile(value, "-fx-background-color", "#3c3a32")));
+        g.fillRoundRect(0, 0, tileSize, tileSize, radius, radius);
+        g.setFill(Color.web(styles.getTile(value, "-fx-text-fill", "#f9f6f2")));
+        g.setFont(Font.font(fontFamily, FontWeight.BOLD, TileStyles.size(styles.getTile(value, "-fx-font-size", "25px"))));
+        g.setTextAlign(TextAlignment.CENTER);
+        g.setTextBaseline(VPos.CENTER);
+        g.fillText(Integer.toString(value), tileSize / 2d, tileSize / 2d);
+
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT);
+        return canvas.snapshot(parameters, null);
+    }
+
+    /**
+     * Shows a whole board without animation.
+     */
+    public void draw(MoveDiff board) {
+        timer.stop();
+        onFinished = null;
+        slides = 0;
+        spawnCell = -1;
+        for (int cell = 0; cell < exponents.length; cell++) {
+            exponents[cell] = board.getExponent(cell);
+            animatedCell[cell] = false;
+        }
+        paint(0);
+    }
+
+    /**
+     * Animates a move on the board shown, then runs {@code onFinished}. The spawn of the move is left to
+     * {@link #animateSpawn}.
+     */
+    public void animateMove(MoveDiff move, Runnable onFinished) {
+        finishAnimation();
+        slides = 0;
+        for (int i = 0; i < move.getSlides(); i++) {
+            addSlide(move.getSlideFrom(i), move.getSlideTo(i), exponents[move.getSlideFrom(i)], 0);
+        }
+        // the survivor of a merge is drawn with its new value from the start, as the tile nodes are
+        for (int i = 0; i < move.getMerges(); i++) {
+            int exponent = exponents[move.getMergeInto(i)];
+            addSlide(move.getMergeFrom(i), move.getMergeTo(i), exponent, BitBoard.ABSORBED);
+            addSlide(move.getMergeInto(i), move.getMergeTo(i), exponent + 1, BitBoard.SURVIVOR);
+        }
+        for (int i = 0; i < slides; i++) {
+            exponents[slideFrom[i]] = 0;
+        }
+        for (int i = 0; i < slides; i++) {
+            if ((slideFlags[i] & BitBoard.ABSORBED) == 0) {
+                exponents[slideTo[i]] = slideExponent[i];
+            }
+        }
+        boolean merged = move.getMerges() > 0;
+        start(merged ? Math.max(TileAnimator.ANIMATION_EXISTING_TILE, 2 * TileAnimator.ANIMATION_MERGED_TILE)
+                : TileAnimator.ANIMATION_EXISTING_TILE, onFinished);
+    }
+
+    private void addSlide(int from, int to, int exponent, int flags) {
+        slideFrom[slides] = from;
+        slideTo[slides] = to;
+        slideExponent[slides] = exponent;
+        slideFlags[slides] = flags;
+        animatedCell[to] = true;
+        slides++;
+    }
+
+    /**
+     * Pops a new tile in, then runs {@code onFinished}.
+     */
+    public void animateSpawn(int cell, int exponent, Runnable onFinished) {
+        finishAnimation();
+        exponents[cell] = exponent;
+        spawnCell = cell;
+        animatedCell[cell] = true;
+        start(TileAnimator.ANIMATION_NEWLY_ADDED_TILE, onFinished);
+    }
+
+    private void start(double millis, Runnable onFinished) {
+        this.animationMillis = millis;
+        this.onFinished = onFinished;
+        animationStart = -1;
+        paint(0);
+        timer.start();
+    }
+
+    public boolean isAnimating() {
+        return onFinished != null;
+    }
+
+    /**
+     * Jumps to the end of the running animation, if any.
+     */
+    public void finishAnimation() {
+        timer.stop();
+        Runnable finished = onFinished;
+        onFinished = null;
+        for (int i = 0; i < slides; i++) {
+            animatedCell[slideTo[i]] = false;
+        }
+        if (spawnCell >= 0) {
+            animatedCell[spawnCell] = false;
+        }
+        slides = 0;
+        spawnCell = -1;
+        paint(0);
+        if (finished != null) {
+            finished.run();
+        }
+    }
+
+    private void paint(double elapsed) {
+        gc.setFill(backgroundColor);
+        gc.fillRect(0, 0, getWidth(), getHeight());
+        double arc = Board.CELL_SIZE / 6d;
+        gc.setFill(cellColor);
+        for (int cell = 0; cell < exponents.length; cell++) {
+            gc.fillRoundRect(cellX(cell) + 7, cellY(cell) + 7, Board.CELL_SIZE - 14, Board.CELL_SIZE - 14, arc, arc);
+        }
+
+        for (int cell = 0; cell < exponents.length; cell++) {
+            if (exponents[cell] != 0 && !animatedCell[cell]) {
+                drawTile(exponents[cell], cellX(cell), cellY(cell), 1);
+            }
+        }
+
+        double slide = TileAnimator.slideFraction(elapsed);
+        // absorbed tiles first, so they slide underneath the tile they merge into
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < slides; i++) {
+                boolean absorbed = (slideFlags[i] & BitBoard.ABSORBED) != 0;
+                if (absorbed != (pass == 0)) {
+                    continue;
+                }
+                double x = cellX(slideFrom[i]) + (cellX(slideTo[i]) - cellX(slideFrom[i])) * slide;
+                double y = cellY(slideFrom[i]) + (cellY(slideTo[i]) - cellY(slideFrom[i])) * slide;
+                drawTile(slideExponent[i], x, y,
+                        (slideFlags[i] & BitBoard.SURVIVOR) != 0 ? TileAnimator.mergedScale(elapsed) : 1);
+            }
+        }
+
+        if (spawnCell >= 0) {
+            drawTile(exponents[spawnCell], cellX(spawnCell), cellY(spawnCell), TileAnimator.spawnScale(elapsed));
+        }
+    }
+
+    private void drawTile(int exponent, double cellX, double cellY, double scale) {
+        double size = tileSize * scale;
+        double offset = (Board.CELL_SIZE - size) / 2;
+        gc.drawImage(tileImages[Math.min(exponent, GameEngine.MAX_EXPONENT)], cellX + offset, cellY + offset, size, size);
+    }
+
+    private double cellX(int cell) {
+        return (cell % gridSize) * Board.CELL_SIZE;
+    }
+
+    private double cellY(int cell) {
+        return (cell / gridSize) * Board.CELL_SIZE;
+    }
+}
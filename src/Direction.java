@@ -1,5 +1,3 @@
-import javafx.scene.input.KeyCode;
-
 /**
  * (File info).
  *
@@ -24,8 +22,4 @@ public enum Direction {
     public int getY() {
         return y;
     }
-
-    public static Direction valueFor(KeyCode keyCode) {
-        return valueOf(keyCode.name());
-    }
 }
@@ -0,0 +1,445 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Expectimax search for the best next move on a {@link BitBoard}. Chance nodes follow the spawn rules
+ * (90% 2, 10% 4) and stop expanding once the probability of reaching them gets too low. The search deepens
+ * iteratively until the time budget runs out and always answers with the best move of the deepest finished
+ * iteration. The root directions and the spawns right below them are searched in parallel, all threads
+ * sharing one {@link TranspositionTable}; a board whose best move is in the table from an earlier search
+ * starts deepening from there.
+ *
+ * @author Bram
+ */
+public class ExpectimaxSolver implements Strategy {
+
+    public static final long DEFAULT_BUDGET_MILLIS = 10;
+
+    private static final double PROBABILITY_THRESHOLD = 0.0001;
+    private static final int MAX_DEPTH = 12;
+    private static final int NODES_PER_CLOCK_CHECK = 1024;
+
+    private static final float LOST_PENALTY = 200000f;
+    private static final float MONOTONICITY_POWER = 4f;
+    private static final float MONOTONICITY_WEIGHT = 47f;
+    private static final float SUM_POWER = 3.5f;
+    private static final float SUM_WEIGHT = 11f;
+    private static final float MERGES_WEIGHT = 700f;
+    private static final float EMPTY_WEIGHT = 270f;
+
+    private static final float[] ROW_HEURISTIC = new float[65536];
+
+    static {
+        for (int row = 0; row < 65536; row++) {
+            int[] line = new int[BitBoard.SIZE];
+            for (int i = 0; i < BitBoard.SIZE; i++) {
+                line[i] = (row >>> (4 * i)) & 0xF;
+            }
+            float sum = 0;
+            int empty = 0;
+            int merges = 0;
+            int prev = 0;
+            int counter = 0;
+            for (int rank : line) {
+                sum += Math.pow(rank, SUM_POWER);
+                if (rank == 0) {
+                    empty++;
+                } else {
+                    if (prev == rank) {
+                        counter++;
+                    } else if (counter > 0) {
+                        merges += 1 + counter;
+                        counter = 0;
+                    }
+                    prev = rank;
+                }
+            }
+            if (counter > 0) {
+                merges += 1 + counter;
+            }
+            float monotonicityLeft = 0;
+            float monotonicityRight = 0;
+            for (int i = 1; i < BitBoard.SIZE; i++) {
+                if (line[i - 1] > line[i]) {
+                    monotonicityLeft += Math.pow(line[i - 1], MONOTONICITY_POWER) - Math.pow(line[i], MONOTONICITY_POWER);
+                } else {
+                    monotonicityRight += Math.pow(line[i], MONOTONICITY_POWER) - Math.pow(line[i - 1], MONOTONICITY_POWER);
+                }
+            }
+            ROW_HEURISTIC[row] = LOST_PENALTY + EMPTY_WEIGHT * empty + MERGES_WEIGHT * merges
+                    - MONOTONICITY_WEIGHT * Math.min(monotonicityLeft, monotonicityRight) - SUM_WEIGHT * sum;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final long budgetNanos;
+    private final TranspositionTable table;
+
+    private volatile SearchResult lastResult;
+
+    public ExpectimaxSolver() {
+        this(DEFAULT_BUDGET_MILLIS, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ExpectimaxSolver(long budgetMillis, int threads) {
+        this(budgetMillis, threads, new TranspositionTable());
+    }
+
+    /**
+     * @param table the transposition table, which may be shared with other solvers
+     */
+    public ExpectimaxSolver(long budgetMillis, int threads, TranspositionTable table) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.pool = new ForkJoinPool(threads);
+        this.table = table;
+    }
+
+    @Override
+    public Direction nextMove(long board, GameRandom random) {
+        return search(board).getMove();
+    }
+
+    /**
+     * Searches the board until the time budget runs out.
+     */
+    public SearchResult search(long board) {
+        return search(board, budgetNanos, MAX_DEPTH);
+    }
+
+    public SearchResult search(long board, long budgetNanos, int maxDepth) {
+        long start = System.nanoTime();
+        return search(board, start, new Search(start + budgetNanos, () -> false), maxDepth, null);
+    }
+
+    /**
+     * Searches the board without a time budget, one iteration deeper at a time, until the maximum depth or
+     * until {@code cancelled} answers true. The fallback move and the move of every finished iteration are
+     * handed to {@code progress} as soon as they are known.
+     */
+    public SearchResult ponder(long board, BooleanSupplier cancelled, Consumer<SearchResult> progress) {
+        return search(board, System.nanoTime(), new Search(Long.MAX_VALUE, cancelled), MAX_DEPTH, progress);
+    }
+
+    private SearchResult search(long board, long start, Search search, int maxDepth,
+                                Consumer<SearchResult> progress) {
+        table.nextAge();
+        Direction best = fallbackMove(board);
+        int depth = 0;
+        int cachedDepth = best == null ? 0 : table.getMoveDepth(board);
+        Direction cached = cachedDepth == 0 ? null : table.getMove(board);
+        if (cached != null) {
+            best = cached;
+            depth = cachedDepth;
+        }
+        if (progress != null && best != null) {
+            progress.accept(new SearchResult(best, depth, 0, System.nanoTime() - start));
+        }
+        while (best != null && depth < maxDepth && System.nanoTime() < search.deadline
+                && !search.cancelled.getAsBoolean()) {
+            Direction found = pool.invoke(new RootTask(search, board, depth + 1));
+            if (search.aborted) {
+                break;
+            }
+            best = found;
+            depth++;
+            table.putMove(board, depth, best);
+            if (progress != null) {
+                progress.accept(new SearchResult(best, depth, search.nodes.sum(), System.nanoTime() - start));
+            }
+        }
+        lastResult = new SearchResult(best, depth, search.nodes.sum(), System.nanoTime() - start);
+        return lastResult;
+    }
+
+    public SearchResult getLastResult() {
+        return lastResult;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public static float evaluate(long board) {
+        long transposed = BitBoard.transpose(board);
+        return ROW_HEURISTIC[(int) (board & 0xFFFF)] + ROW_HEURISTIC[(int) ((board >>> 16) & 0xFFFF)]
+                + ROW_HEURISTIC[(int) ((board >>> 32) & 0xFFFF)] + ROW_HEURISTIC[(int) (board >>> 48)]
+                + ROW_HEURISTIC[(int) (transposed & 0xFFFF)] + ROW_HEURISTIC[(int) ((transposed >>> 16) & 0xFFFF)]
+                + ROW_HEURISTIC[(int) ((transposed >>> 32) & 0xFFFF)] + ROW_HEURISTIC[(int) (transposed >>> 48)];
+    }
+
+    /**
+     * Answer available before any search: the legal move leaving most empty cells.
+     */
+    private static Direction fallbackMove(long board) {
+        Direction best = null;
+        int bestEmpty = -1;
+        for (Direction direction : Direction.values()) {
+            long moved = BitBoard.move(board, direction);
+            if (moved != board && BitBoard.countEmpty(moved) > bestEmpty) {
+                best = direction;
+                bestEmpty = BitBoard.countEmpty(moved);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * State shared by all tasks of one search.
+     */
+    private static class Search {
+
+        private final long deadline;
+        private final BooleanSupplier cancelled;
+        private final LongAdder nodes = new LongAdder();
+        /**
+         * Nodes since the last look at the clock, per pool thread: workers are short-lived, the count is not
+         */
+        private final ThreadLocal<int[]> clocks = ThreadLocal.withInitial(() -> new int[1]);
+        private volatile boolean aborted;
+
+        Search(long deadline, BooleanSupplier cancelled) {
+            this.deadline = deadline;
+            this.cancelled = cancelled;
+        }
+    }
+
+    /**
+     * Evaluates the four directions in parallel and returns the best one.
+     */
+    @SuppressWarnings("serial")
+    private class RootTask extends RecursiveTask<Direction> {
+
+        private final Search search;
+        private final long board;
+        private final int depth;
+
+        RootTask(Search search, long board, int depth) {
+            this.search = search;
+            this.board = board;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Direction compute() {
+            Direction[] directions = Direction.values();
+            ChanceTask[] tasks = new ChanceTask[directions.length];
+            for (int i = 0; i < directions.length; i++) {
+                long moved = BitBoard.move(board, directions[i]);
+                if (moved != board) {
+                    tasks[i] = new ChanceTask(search, moved, depth, -1, 0);
+                    tasks[i].fork();
+                }
+            }
+            Direction best = null;
+            float bestScore = -1;
+            for (int i = directions.length - 1; i >= 0; i--) {
+                if (tasks[i] != null) {
+                    float score = tasks[i].join();
+                    if (score > bestScore) {
+                        best = directions[i];
+                        bestScore = score;
+                    }
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Top chance node of a root direction. With {@code cell < 0} it forks one task per spawn (cell and value),
+     * otherwise it searches that single spawn.
+     */
+    @SuppressWarnings("serial")
+    private class ChanceTask extends RecursiveTask<Float> {
+
+        private final Search search;
+        private final long board;
+        private final int depth;
+        private final int cell;
+        private final int exponent;
+
+        ChanceTask(Search search, long board, int depth, int cell, int exponent) {
+            this.search = search;
+            this.board = board;
+            this.depth = depth;
+            this.cell = cell;
+            this.exponent = exponent;
+        }
+
+        @Override
+        protected Float compute() {
+            if (cell >= 0) {
+                double probability = exponent == 1 ? BitBoard.PROBABILITY_OF_TWO : 1 - BitBoard.PROBABILITY_OF_TWO;
+                int empty = BitBoard.countEmpty(board);
+                return new Worker(search, table).maxNode(board | (long) exponent << (4 * cell), depth - 1,
+                        probability / empty);
+            }
+            int empty = BitBoard.emptyMask(board);
+            int count = Integer.bitCount(empty);
+            ChanceTask[] twos = new ChanceTask[count];
+            ChanceTask[] fours = new ChanceTask[count];
+            for (int i = 0, mask = empty; mask != 0; i++, mask &= mask - 1) {
+                int c = Integer.numberOfTrailingZeros(mask);
+                twos[i] = new ChanceTask(search, board, depth, c, 1);
+                fours[i] = new ChanceTask(search, board, depth, c, 2);
+                twos[i].fork();
+                fours[i].fork();
+            }
+            float sum = 0;
+            for (int i = count - 1; i >= 0; i--) {
+                sum += (float) ((1 - BitBoard.PROBABILITY_OF_TWO) * fours[i].join());
+                sum += (float) (BitBoard.PROBABILITY_OF_TWO * twos[i].join());
+            }
+            return sum / count;
+        }
+    }
+
+    /**
+     * Sequential search below the parallel top levels.
+     */
+    private static class Worker {
+
+        private final Search search;
+        private final TranspositionTable table;
+        private final int[] clock;
+
+        Worker(Search search, TranspositionTable table) {
+            this.search = search;
+            this.table = table;
+            this.clock = search.clocks.get();
+        }
+
+        float maxNode(long board, int depth, double probability) {
+            float best = 0;
+            for (Direction direction : Direction.values()) {
+                long moved = BitBoard.move(board, direction);
+                if (moved != board) {
+                    best = Math.max(best, chanceNode(moved, depth, probability));
+                }
+            }
+            return best;
+        }
+
+        float chanceNode(long board, int depth, double probability) {
+            search.nodes.increment();
+            if (++clock[0] == NODES_PER_CLOCK_CHECK) {
+                clock[0] = 0;
+                if (System.nanoTime() > search.deadline || search.cancelled.getAsBoolean()) {
+                    search.aborted = true;
+                }
+            }
+            if (search.aborted) {
+                return 0;
+            }
+            if (depth == 0 || probability < PROBABILITY_THRESHOLD) {
+                return evaluate(board);
+            }
+            float cached = table.get(board, depth);
+            if (!Float.isNaN(cached)) {
+                return cached;
+            }
+
+            int empty = BitBoard.emptyMask(board);
+            int count = Integer.bitCount(empty);
+            double cellProbability = probability / count;
+            float sum = 0;
+            for (int mask = empty; mask != 0; mask &= mask - 1) {
+                int shift = 4 * Integer.numberOfTrailingZeros(mask);
+                sum += BitBoard.PROBABILITY_OF_TWO
+                        * maxNode(board | 1L << shift, depth - 1, cellProbability * BitBoard.PROBABILITY_OF_TWO);
+                sum += (1 - BitBoard.PROBABILITY_OF_TWO)
+                        * maxNode(board | 2L << shift, depth - 1, cellProbability * (1 - BitBoard.PROBABILITY_OF_TWO));
+            }
+            float result = sum / count;
+            if (!search.aborted) {
+                table.put(board, depth, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Outcome of a search.
+     */
+    public static class SearchResult {
+
+        private final Direction move;
+        private final int depth;
+        private final long nodes;
+        private final long nanos;
+
+        SearchResult(Direction move, int depth, long nodes, long nanos) {
+            this.move = move;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns the best move found, null only when no move is possible.
+         */
+        public Direction getMove() {
+            return move;
+        }
+
+        /**
+         * Returns the depth of the deepest completed iteration, 0 if only the fallback move was available.
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public double getNodesPerSecond() {
+            return nanos == 0 ? 0 : nodes * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("SearchResult{move=%s, depth=%d, nodes=%d, %.0f nodes/s}", move, depth, nodes,
+                    getNodesPerSecond());
+        }
+    }
+
+    public static void main(String[] args) {
+        long budget = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_BUDGET_MILLIS;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        ExpectimaxSolver solver = new ExpectimaxSolver(budget, Runtime.getRuntime().availableProcessors());
+        GameRandom random = new GameRandom(seed);
+
+        long board = BitBoard.newGame(random);
+        int score = 0;
+        int moves = 0;
+        long nodes = 0;
+        long nanos = 0;
+        SearchResult result;
+        while ((result = solver.search(board)).getMove() != null) {
+            Direction direction = result.getMove();
+            score += BitBoard.score(board, direction);
+            board = BitBoard.spawnTile(BitBoard.move(board, direction), random);
+            nodes += result.getNodes();
+            nanos += result.getNanos();
+            moves++;
+        }
+        solver.shutdown();
+        System.out.print(BitBoard.toString(board));
+        System.out.println(solver.getTable());
+        System.out.printf("seed=%d score=%d moves=%d max tile=%d, %.0f nodes/s%n", seed, score, moves,
+                BitBoard.valueOf(BitBoard.maxExponent(board)), nanos == 0 ? 0 : nodes * 1e9 / nanos);
+    }
+}
@@ -0,0 +1,82 @@
+import javafx.animation.AnimationTimer;
+import javafx.scene.Scene;
+
+/**
+ * Measures the FX pulses of a scene: the frame time between two pulses, from an {@link AnimationTimer}, and
+ * the time each pulse spends on CSS and layout, between the scene's pre and post layout pulse listeners.
+ * The timer keeps the pulses coming even when nothing changes, so the monitor is only installed when there
+ * is someone to look at the numbers.
+ *
+ * @author Bram
+ */
+public class FrameMonitor {
+
+    private static final Metrics.Distribution FRAME_TIME = Metrics.distribution("fx.frameTime", "ns");
+    private static final Metrics.Distribution LAYOUT_TIME = Metrics.distribution("fx.layoutTime", "ns");
+
+    private final Scene scene;
+    private final Runnable beforeLayout = this::beforeLayout;
+    private final Runnable afterLayout = this::afterLayout;
+    private long layoutStart;
+    private long layoutTime;
+    private long lastPulse = -1;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (lastPulse >= 0) {
+                recordFrame(now - lastPulse);
+            }
+            lastPulse = now;
+        }
+    };
+
+    private FrameMonitor(Scene scene) {
+        this.scene = scene;
+    }
+
+    /**
+     * Starts monitoring the scene if metrics are enabled or a flight recording wants frame events.
+     *
+     * @return the monitor, null if none was needed
+     */
+    public static FrameMonitor install(Scene scene) {
+        if (!Metrics.ENABLED && !new GameEvents.Frame().isEnabled()) {
+            return null;
+        }
+        FrameMonitor monitor = new FrameMonitor(scene);
+        scene.addPreLayoutPulseListener(monitor.beforeLayout);
+        scene.addPostLayoutPulseListener(monitor.afterLayout);
+        monitor.timer.start();
+        return monitor;
+    }
+
+    public void uninstall() {
+        timer.stop();
+        scene.removePreLayoutPulseListener(beforeLayout);
+        scene.removePostLayoutPulseListener(afterLayout);
+    }
+
+    private void beforeLayout() {
+        layoutStart = System.nanoTime();
+    }
+
+    private void afterLayout() {
+        layoutTime = System.nanoTime() - layoutStart;
+        if (Metrics.ENABLED) {
+            LAYOUT_TIME.record(layoutTime);
+        }
+    }
+
+    private void recordFrame(long frameTime) {
+        if (Metrics.ENABLED) {
+            FRAME_TIME.record(frameTime);
+        }
+        GameEvents.Frame event = new GameEvents.Frame();
+        if (event.shouldCommit()) {
+            event.frameTime = frameTime;
+            event.layoutTime = layoutTime;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Index of the empty cells of a grid: a bitset for membership plus a dense array of the free cells with
+ * swap-remove, so marking, unmarking and picking a random free cell are all O(1) and allocation free.
+ * <p>
+ * The order of the dense array depends on the order the cells were marked in, and a pick depends on that
+ * order. {@link #index} puts it back in cell order, so a board loaded as a whole spawns the same whatever
+ * led to it; {@link #get} and {@link #reorder} save and restore the exact order, for an undo that must
+ * spawn like the original game did.
+ *
+ * @author Bram
+ */
+public class FreeCells {
+
+    private final long[] bits;
+    private final int[] dense;
+    private final int[] positions;
+    private int size;
+
+    public FreeCells(int cells) {
+        bits = new long[(cells + 63) >>> 6];
+        dense = new int[cells];
+        positions = new int[cells];
+        reset();
+    }
+
+    /**
+     * Marks every cell as free.
+     */
+    public void reset() {
+        for (int cell = 0; cell < dense.length; cell++) {
+            dense[cell] = cell;
+            positions[cell] = cell;
+            bits[cell >>> 6] |= 1L << cell;
+        }
+        size = dense.length;
+    }
+
+    public boolean isFree(int cell) {
+        return (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    public void markFree(int cell) {
+        if (!isFree(cell)) {
+            bits[cell >>> 6] |= 1L << cell;
+            dense[size] = cell;
+            positions[cell] = size;
+            size++;
+        }
+    }
+
+    public void markOccupied(int cell) {
+        if (isFree(cell)) {
+            bits[cell >>> 6] &= ~(1L << cell);
+            int position = positions[cell];
+            int last = dense[--size];
+            dense[position] = last;
+            positions[last] = position;
+        }
+    }
+
+    /**
+     * Recomputes the bits of words {@code [fromWord, toWord)} from the cell exponents. Disjoint word ranges
+     * may be rebuilt concurrently; {@link #index} must be called afterwards.
+     */
+    public void rebuild(int[] exponents, int fromWord, int toWord) {
+        for (int word = fromWord; word < toWord; word++) {
+            long w = 0;
+            for (int cell = word << 6; cell < Math.min(dense.length, (word + 1) << 6); cell++) {
+                if (exponents[cell] == 0) {
+                    w |= 1L << cell;
+                }
+            }
+            bits[word] = w;
+        }
+    }
+
+    /**
+     * Lists the free cells in cell order, from the bits. O(cells).
+     */
+    public void index() {
+        size = 0;
+        for (int word = 0; word < bits.length; word++) {
+            for (long w = bits[word]; w != 0; w &= w - 1) {
+                int cell = (word << 6) + Long.numberOfTrailingZeros(w);
+                dense[size] = cell;
+                positions[cell] = size;
+                size++;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the i-th free cell, in pick order.
+     */
+    public int get(int i) {
+        return dense[i];
+    }
+
+    /**
+     * Puts the free cells in the pick order saved from {@link #get}, starting at {@code order[offset]}. The
+     * same cells must be free as when the order was saved.
+     */
+    public void reorder(char[] order, int offset) {
+        for (int i = 0; i < size; i++) {
+            int cell = order[offset + i];
+            dense[i] = cell;
+            positions[cell] = i;
+        }
+    }
+
+    /**
+     * Returns a uniformly chosen free cell, or -1 when the grid is full.
+     */
+    public int random(GameRandom random) {
+        return size == 0 ? -1 : dense[random.nextInt(size)];
+    }
+}
@@ -5,6 +5,9 @@ import javafx.scene.Scene;
 import javafx.scene.layout.StackPane;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 /**
  * (File info).
  *
@@ -12,18 +15,37 @@ import javafx.stage.Stage;
  */
 public class Game2048 extends Application {
 
-    public static void main(String[] args) {
-        launch(args);
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--server")) {
+            GameServer.main(Arrays.copyOfRange(args, 1, args.length));
+        } else {
+            launch(args);
+        }
     }
 
+    private GamePane root;
+    private FrameMonitor frameMonitor;
+
     @Override
     public void start(Stage primaryStage) {
         primaryStage.setTitle("2048");
-        GamePane root = new GamePane();
+        root = new GamePane();
         Scene scene = new Scene(root);
         scene.getStylesheets().add("game.css");
         primaryStage.setScene(scene);
         primaryStage.show();
+        frameMonitor = FrameMonitor.install(scene);
+        Metrics.start();
     }
-}
 
+    @Override
+    public void stop() {
+        if (frameMonitor != null) {
+            frameMonitor.uninstall();
+        }
+        if (root != null) {
+            root.shutdown();
+        }
+        Metrics.stop();
+    }
+}
@@ -0,0 +1,519 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Headless game state: one tile exponent per cell (0 = empty), indexed by {@code y * gridSize + x}.
+ * A move slides every line towards the wall and records which tiles moved, so a view can replay the
+ * result. 4x4 lines are resolved through the {@link BitBoard} tables; on grids of at least
+ * {@link #PARALLEL_THRESHOLD} lines the lines of a move are split over a fork-join pool.
+ *
+ * @author Bram
+ */
+public class GameEngine {
+
+    /**
+     * Highest exponent a tile may reach, so that tile values still fit in an {@code int}.
+     */
+    public static final int MAX_EXPONENT = 30;
+
+    /**
+     * Grid size from which moves run in parallel by default.
+     */
+    public static final int PARALLEL_THRESHOLD = Integer.getInteger("game.parallelThreshold", 64);
+    private static final int LINES_PER_TASK = 8;
+    private static final int WORDS_PER_TASK = 64;
+
+    private final int gridSize;
+    private final int[] cells;
+    private final FreeCells freeCells;
+    private final GameRandom random = new GameRandom();
+    private long seed;
+    private int mergeablePairs;
+    private int score;
+    private int lastScore;
+
+    private final int[] moveFrom;
+    private final int[] moveTo;
+    private final int[] moveFlags;
+    private int moveCount;
+
+    private final int[] lineResult;
+    private final int[] lineTargets;
+
+    /**
+     * First cell of every line and the step along it, per direction ordinal, from the wall outwards
+     */
+    private final int[][] lineOffsets;
+    private final int[] lineStrides;
+
+    /**
+     * Parallel moves: the pool, per line the number of moves and points, per task its scratch lines and
+     * its counts of free cells and mergeable pairs
+     */
+    private final ForkJoinPool pool;
+    private int[] lineMoves;
+    private int[] linePoints;
+    private int[][] taskResult;
+    private int[][] taskTargets;
+    private int[] taskPairs;
+
+    public GameEngine() {
+        this(GridOperator.DEFAULT_GRID_SIZE);
+    }
+
+    public GameEngine(int gridSize) {
+        this(gridSize, gridSize >= PARALLEL_THRESHOLD ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * @param pool runs the lines of a move in parallel, or null to move them one by one
+     */
+    public GameEngine(int gridSize, ForkJoinPool pool) {
+        this.gridSize = gridSize;
+        this.cells = new int[gridSize * gridSize];
+        this.freeCells = new FreeCells(cells.length);
+        this.moveFrom = new int[cells.length];
+        this.moveTo = new int[cells.length];
+        this.moveFlags = new int[cells.length];
+        this.lineResult = new int[gridSize];
+        this.lineTargets = new int[gridSize];
+
+        lineOffsets = new int[Direction.values().length][gridSize];
+        lineStrides = new int[Direction.values().length];
+        for (Direction direction : Direction.values()) {
+            int d = direction.ordinal();
+            for (int line = 0; line < gridSize; line++) {
+                switch (direction) {
+                    case LEFT:
+                        lineOffsets[d][line] = line * gridSize;
+                        lineStrides[d] = 1;
+                        break;
+                    case RIGHT:
+                        lineOffsets[d][line] = line * gridSize + gridSize - 1;
+                        lineStrides[d] = -1;
+                        break;
+                    case UP:
+                        lineOffsets[d][line] = line;
+                        lineStrides[d] = gridSize;
+                        break;
+                    default:
+                        lineOffsets[d][line] = (gridSize - 1) * gridSize + line;
+                        lineStrides[d] = -gridSize;
+                        break;
+                }
+            }
+        }
+
+        this.pool = pool;
+        if (pool != null) {
+            int lineTasks = (gridSize + LINES_PER_TASK - 1) / LINES_PER_TASK;
+            int wordTasks = ((cells.length + 63) / 64 + WORDS_PER_TASK - 1) / WORDS_PER_TASK;
+            lineMoves = new int[gridSize];
+            linePoints = new int[gridSize];
+            taskResult = new int[lineTasks][gridSize];
+            taskTargets = new int[lineTasks][gridSize];
+            taskPairs = new int[wordTasks];
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(cells, 0);
+        freeCells.reset();
+        mergeablePairs = 0;
+        score = 0;
+        lastScore = 0;
+        moveCount = 0;
+    }
+
+    /**
+     * Moves all tiles in the given direction.
+     *
+     * @return the number of tiles that moved or merged, 0 if the move changed nothing
+     */
+    public int move(Direction direction) {
+        moveCount = 0;
+        lastScore = 0;
+        if (pool != null) {
+            moveParallel(direction.ordinal());
+        } else {
+            for (int line = 0; line < gridSize; line++) {
+                lastScore += moveLine(direction.ordinal(), line);
+            }
+        }
+        score += lastScore;
+        return moveCount;
+    }
+
+    private int moveLine(int direction, int line) {
+        final int offset = lineOffsets[direction][line];
+        final int stride = lineStrides[direction];
+        if (gridSize == BitBoard.SIZE) {
+            int key = 0;
+            int max = 0;
+            for (int i = 0; i < BitBoard.SIZE; i++) {
+                int value = cells[offset + i * stride];
+                key |= value << (4 * i);
+                max = Math.max(max, value);
+            }
+            if (max < BitBoard.MAX_EXPONENT) {
+                return moveTableLine(key, offset, stride);
+            }
+        }
+
+        int lineScore = BitBoard.slideLine(cells, offset, stride, gridSize, lineResult, lineTargets, MAX_EXPONENT);
+        for (int i = 0; i < gridSize; i++) {
+            int from = offset + i * stride;
+            if (cells[from] != 0) {
+                int target = lineTargets[i] & 0xFFFF;
+                int flags = lineTargets[i] >>> BitBoard.FLAG_SHIFT;
+                if (target != i || flags != 0) {
+                    record(from, offset + target * stride, flags);
+                }
+            }
+        }
+        for (int i = 0; i < gridSize; i++) {
+            setCell(offset + i * stride, lineResult[i]);
+        }
+        return lineScore;
+    }
+
+    private int moveTableLine(int key, int offset, int stride) {
+        int result = BitBoard.slideRow(key);
+        if (result == key) {
+            return 0;
+        }
+        int targets = BitBoard.slideTargets(key);
+        for (int i = 0; i < BitBoard.SIZE; i++) {
+            if (((key >>> (4 * i)) & 0xF) != 0) {
+                int t = (targets >>> (4 * i)) & 0xF;
+                int target = t & BitBoard.TARGET_MASK;
+                int flags = t & ~BitBoard.TARGET_MASK;
+                if (target != i || flags != 0) {
+                    record(offset + i * stride, offset + target * stride, flags);
+                }
+            }
+            setCell(offset + i * stride, (result >>> (4 * i)) & 0xF);
+        }
+        return BitBoard.slideScore(key);
+    }
+
+    /**
+     * Lines of one direction never share a cell, so every task slides its own lines straight into the
+     * cells and records their moves in the block of the line. The free cells and mergeable pairs are then
+     * recounted in parallel, the free cells listed in cell order, and the recorded moves compacted in line
+     * order, as a serial move gives them.
+     */
+    private void moveParallel(int direction) {
+        pool.invoke(new LineTask(direction, 0, taskResult.length));
+        pool.invoke(new CountTask(0, taskPairs.length));
+        freeCells.index();
+
+        int pairs = 0;
+        for (int task = 0; task < taskPairs.length; task++) {
+            pairs += taskPairs[task];
+        }
+        mergeablePairs = pairs;
+
+        for (int line = 0; line < gridSize; line++) {
+            int moves = lineMoves[line];
+            if (moves > 0) {
+                int block = line * gridSize;
+                System.arraycopy(moveFrom, block, moveFrom, moveCount, moves);
+                System.arraycopy(moveTo, block, moveTo, moveCount, moves);
+                System.arraycopy(moveFlags, block, moveFlags, moveCount, moves);
+                moveCount += moves;
+            }
+            lastScore += linePoints[line];
+        }
+    }
+
+    private void moveLines(int direction, int task) {
+        int[] result = taskResult[task];
+        int[] targets = taskTargets[task];
+        int stride = lineStrides[direction];
+        for (int line = task * LINES_PER_TASK; line < Math.min(gridSize, (task + 1) * LINES_PER_TASK); line++) {
+            int offset = lineOffsets[direction][line];
+            int block = line * gridSize;
+            int moves = 0;
+            linePoints[line] = BitBoard.slideLine(cells, offset, stride, gridSize, result, targets, MAX_EXPONENT);
+            for (int i = 0; i < gridSize; i++) {
+                int from = offset + i * stride;
+                if (cells[from] != 0) {
+                    int target = targets[i] & 0xFFFF;
+                    int flags = targets[i] >>> BitBoard.FLAG_SHIFT;
+                    if (target != i || flags != 0) {
+                        moveFrom[block + moves] = from;
+                        moveTo[block + moves] = offset + target * stride;
+                        moveFlags[block + moves] = flags;
+                        moves++;
+                    }
+                }
+            }
+            for (int i = 0; i < gridSize; i++) {
+                cells[offset + i * stride] = result[i];
+            }
+            lineMoves[line] = moves;
+        }
+    }
+
+    private void count(int task) {
+        int fromWord = task * WORDS_PER_TASK;
+        int toWord = Math.min(fromWord + WORDS_PER_TASK, (cells.length + 63) / 64);
+        freeCells.rebuild(cells, fromWord, toWord);
+        int pairs = 0;
+        for (int cell = fromWord * 64; cell < Math.min(cells.length, toWord * 64); cell++) {
+            int exponent = cells[cell];
+            if (exponent == 0 || exponent == MAX_EXPONENT) {
+                continue;
+            }
+            if (cell % gridSize < gridSize - 1 && cells[cell + 1] == exponent) {
+                pairs++;
+            }
+            if (cell + gridSize < cells.length && cells[cell + gridSize] == exponent) {
+                pairs++;
+            }
+        }
+        taskPairs[task] = pairs;
+    }
+
+    @SuppressWarnings("serial")
+    private class LineTask extends RecursiveAction {
+
+        private final int direction;
+        private final int from;
+        private final int to;
+
+        LineTask(int direction, int from, int to) {
+            this.direction = direction;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                moveLines(direction, from);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LineTask(direction, from, middle), new LineTask(direction, middle, to));
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class CountTask extends RecursiveAction {
+
+        private final int from;
+        private final int to;
+
+        CountTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                count(from);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CountTask(from, middle), new CountTask(middle, to));
+            }
+        }
+    }
+
+    /**
+     * Single point where cells change, keeping the free cell index and the count of mergeable neighbour
+     * pairs up to date.
+     */
+    private void setCell(int cell, int exponent) {
+        int old = cells[cell];
+        if (old == exponent) {
+            return;
+        }
+        if (exponent == 0) {
+            freeCells.markFree(cell);
+        } else {
+            freeCells.markOccupied(cell);
+        }
+        int x = cell % gridSize;
+        int y = cell / gridSize;
+        if (x > 0) {
+            mergeablePairs += pairDelta(cells[cell - 1], old, exponent);
+        }
+        if (x < gridSize - 1) {
+            mergeablePairs += pairDelta(cells[cell + 1], old, exponent);
+        }
+        if (y > 0) {
+            mergeablePairs += pairDelta(cells[cell - gridSize], old, exponent);
+        }
+        if (y < gridSize - 1) {
+            mergeablePairs += pairDelta(cells[cell + gridSize], old, exponent);
+        }
+        cells[cell] = exponent;
+    }
+
+    private static int pairDelta(int neighbour, int old, int exponent) {
+        if (neighbour == 0 || neighbour == MAX_EXPONENT) {
+            return 0;
+        }
+        return (neighbour == exponent ? 1 : 0) - (neighbour == old ? 1 : 0);
+    }
+
+    /**
+     * Starts a game on the cleared grid with a seed drawn from the current generator.
+     */
+    public void startGame() {
+        startGame(random.nextLong());
+    }
+
+    /**
+     * Starts a game on the cleared grid: one random tile, plus a second one 80% of the time, never two 4s.
+     * The same seed and moves always give the same game.
+     */
+    public void startGame(long seed) {
+        this.seed = seed;
+        random.setState(seed);
+        int first = spawnRandomTile();
+        if (random.nextDouble() <= BitBoard.PROBABILITY_OF_SECOND_TILE) {
+            int second = spawnRandomTile();
+            if (cells[first] == 2 && cells[second] == 2) {
+                setCell(second, 1);
+            }
+        }
+    }
+
+    /**
+     * Adds a 2 (90%) or a 4 on a random empty cell.
+     *
+     * @return the cell of the new tile, -1 if the grid is full
+     */
+    public int spawnRandomTile() {
+        int cell = freeCells.random(random);
+        if (cell >= 0) {
+            setCell(cell, random.nextDouble() < BitBoard.PROBABILITY_OF_TWO ? 1 : 2);
+        }
+        return cell;
+    }
+
+    public int getEmptyCount() {
+        return freeCells.size();
+    }
+
+    /**
+     * Returns the number of horizontally or vertically adjacent pairs of equal tiles that can still merge.
+     */
+    public int getMergeablePairs() {
+        return mergeablePairs;
+    }
+
+    /**
+     * Returns true when the grid is full and no two neighbours can merge. O(1): both counts are kept up to
+     * date on every cell change.
+     */
+    public boolean isGameOver() {
+        return freeCells.size() == 0 && mergeablePairs == 0;
+    }
+
+    private void record(int from, int to, int flags) {
+        moveFrom[moveCount] = from;
+        moveTo[moveCount] = to;
+        moveFlags[moveCount] = flags;
+        moveCount++;
+    }
+
+    public int getGridSize() {
+        return gridSize;
+    }
+
+    public int getExponent(int x, int y) {
+        return cells[y * gridSize + x];
+    }
+
+    public int getExponent(int cell) {
+        return cells[cell];
+    }
+
+    public void setExponent(int x, int y, int exponent) {
+        setCell(y * gridSize + x, exponent);
+    }
+
+    /**
+     * Replaces every cell with the given exponents, indexed by {@code y * gridSize + x}. The free cells are
+     * listed in cell order, so the board spawns the same however it was reached.
+     */
+    public void setExponents(int[] exponents) {
+        for (int cell = 0; cell < cells.length; cell++) {
+            setCell(cell, exponents[cell]);
+        }
+        freeCells.index();
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public void setScore(int score) {
+        this.score = score;
+    }
+
+    /**
+     * Returns the seed of the running game.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the generator used for spawns; its state is part of the game.
+     */
+    public GameRandom getRandom() {
+        return random;
+    }
+
+    /**
+     * Returns the index of the empty cells; the order it picks from is part of the game, like the generator.
+     */
+    public FreeCells getFreeCells() {
+        return freeCells;
+    }
+
+    /**
+     * Returns the points gained by the last move.
+     */
+    public int getLastScore() {
+        return lastScore;
+    }
+
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    public int getMoveFrom(int i) {
+        return moveFrom[i];
+    }
+
+    public int getMoveTo(int i) {
+        return moveTo[i];
+    }
+
+    /**
+     * Returns {@link BitBoard#ABSORBED} for a tile that disappears into another one, {@link BitBoard#SURVIVOR}
+     * for the tile that doubles its value, 0 for a plain slide.
+     */
+    public int getMoveFlags(int i) {
+        return moveFlags[i];
+    }
+
+    /**
+     * Returns the board packed as a {@link BitBoard}. Only valid on a 4x4 grid.
+     */
+    public long toBitBoard() {
+        long board = 0;
+        for (int i = 0; i < BitBoard.CELLS; i++) {
+            board |= (long) Math.min(cells[i], BitBoard.MAX_EXPONENT) << (4 * i);
+        }
+        return board;
+    }
+}
@@ -0,0 +1,116 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder events of the game, in the "2048" category. They cost next to nothing unless a recording
+ * enables them, e.g. {@code -XX:StartFlightRecording:filename=game.jfr}.
+ *
+ * @author Bram
+ */
+public final class GameEvents {
+
+    private GameEvents() {
+    }
+
+    /**
+     * A move committed on the logic thread; the event spans the engine work, from the move to the diff.
+     */
+    @Name("game2048.Move")
+    @Label("Move")
+    @Category({"2048", "Logic"})
+    @StackTrace(false)
+    public static class Move extends Event {
+
+        @Label("Direction")
+        public String direction;
+
+        @Label("Changed")
+        public boolean changed;
+
+        @Label("Tiles Moved")
+        public int tilesMoved;
+
+        @Label("Tiles Merged")
+        public int tilesMerged;
+
+        @Label("Points")
+        public int points;
+
+        @Label("Spawn Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long spawnTime;
+
+        @Label("Game Over Check Time")
+        @Description("Time to find out whether any move is left")
+        @Timespan(Timespan.NANOSECONDS)
+        public long gameOverCheckTime;
+
+        @Label("Allocated")
+        @DataAmount(DataAmount.BYTES)
+        public long allocated;
+    }
+
+    /**
+     * A key press reaching the engine.
+     */
+    @Name("game2048.Input")
+    @Label("Input")
+    @Category({"2048", "Input"})
+    @StackTrace(false)
+    public static class Input extends Event {
+
+        @Label("Direction")
+        public String direction;
+
+        @Label("Commit Latency")
+        @Description("Time from the key press to the move being committed to the engine")
+        @Timespan(Timespan.NANOSECONDS)
+        public long commitLatency;
+    }
+
+    /**
+     * The FX thread setting up the animation of a move or a spawn.
+     */
+    @Name("game2048.Animation")
+    @Label("Animation")
+    @Category({"2048", "FX"})
+    @StackTrace(false)
+    public static class Animation extends Event {
+
+        @Label("Kind")
+        public String kind;
+
+        @Label("Tiles Animated")
+        public int tilesAnimated;
+
+        @Label("Tiles Created")
+        @Description("Tile nodes created because the pool was empty")
+        public int tilesCreated;
+    }
+
+    /**
+     * One FX pulse.
+     */
+    @Name("game2048.Frame")
+    @Label("Frame")
+    @Category({"2048", "FX"})
+    @StackTrace(false)
+    public static class Frame extends Event {
+
+        @Label("Frame Time")
+        @Description("Time since the previous pulse")
+        @Timespan(Timespan.NANOSECONDS)
+        public long frameTime;
+
+        @Label("Layout Time")
+        @Description("Time the pulse spent on CSS and layout")
+        @Timespan(Timespan.NANOSECONDS)
+        public long layoutTime;
+    }
+}
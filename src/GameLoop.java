@@ -0,0 +1,357 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Single writer of the game state: one thread owns the {@link GameEngine}, its undo history and snapshots,
+ * and runs the commands sent to it one at a time. Every command produces one {@link MoveDiff}, handed to the
+ * {@link MoveDiffListener}s on the logic thread and then published to the receiver; diffs published while
+ * the receiver is still busy are delivered together in one batch, so the FX thread gets at most one
+ * {@code Platform.runLater} call in flight however fast moves arrive. The receiver hands every diff back
+ * through {@link #release} once it is done with it.
+ *
+ * @author Bram
+ */
+public class GameLoop {
+
+    private final GameEngine engine;
+    private final UndoHistory history;
+    private final SnapshotStore store;
+    private final Thread thread;
+
+    /**
+     * Mailbox: commands in order, with the pending moves in the input queue. A move is queued as
+     * {@link #commitMove} so it keeps its place among the other commands. Guarded by {@code commands}.
+     */
+    private final ArrayDeque<Runnable> commands = new ArrayDeque<>();
+    private final InputQueue moves = new InputQueue();
+    private final Runnable commitMove = this::commitMove;
+    private boolean running = true;
+
+    /**
+     * Outbox: diffs waiting for the receiver, and the list handed to it last. Guarded by {@code outboxLock}.
+     */
+    private final Object outboxLock = new Object();
+    private final Executor publisher;
+    private final Consumer<List<MoveDiff>> receiver;
+    private List<MoveDiff> outbox = new ArrayList<>();
+    private List<MoveDiff> delivered = new ArrayList<>();
+    private boolean deliveryScheduled;
+
+    private final List<MoveDiffListener> listeners = new CopyOnWriteArrayList<>();
+
+    private static final Metrics.Distribution LOGIC_TIME = Metrics.distribution("move.logicTime", "ns");
+    private static final Metrics.Distribution SPAWN_TIME = Metrics.distribution("move.spawnTime", "ns");
+    private static final Metrics.Distribution GAME_OVER_CHECK_TIME =
+            Metrics.distribution("move.gameOverCheckTime", "ns");
+    private static final Metrics.Distribution TILES_MOVED = Metrics.distribution("move.tilesMoved", "tiles");
+    private static final Metrics.Distribution TILES_MERGED = Metrics.distribution("move.tilesMerged", "tiles");
+    private static final Metrics.Distribution ALLOCATED = Metrics.distribution("move.allocated", "bytes");
+
+    /**
+     * Released diffs, ready for reuse. Guarded by {@code pool}.
+     */
+    private static final int POOL_SIZE = 32;
+    private final ArrayDeque<MoveDiff> pool = new ArrayDeque<>();
+
+    /**
+     * @param publisher runs deliveries on the receiving thread, such as {@code Platform::runLater}
+     * @param receiver gets every batch of diffs, in order
+     */
+    public GameLoop(GameEngine engine, int undoDepth, SnapshotStore store, Executor publisher,
+                    Consumer<List<MoveDiff>> receiver) {
+        this.engine = engine;
+        this.history = new UndoHistory(engine.getGridSize(), undoDepth);
+        this.store = store;
+        this.publisher = publisher;
+        this.receiver = receiver;
+        if (store != null) {
+            listeners.add(store);
+        }
+        thread = new Thread(this::run, "game-logic");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Adds a consumer of every diff, called on the logic thread.
+     */
+    public void addListener(MoveDiffListener listener) {
+        listeners.add(listener);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Runs the remaining commands, closes the listeners that are {@link Closeable}, such as the snapshot file,
+     * after the last diff they get, and stops the thread.
+     */
+    public void shutdown() {
+        submit(() -> {
+            running = false;
+            for (MoveDiffListener listener : listeners) {
+                if (listener instanceof Closeable) {
+                    try {
+                        ((Closeable) listener).close();
+                    } catch (IOException e) {
+                        System.err.println("Can't close the " + listener.getClass().getSimpleName() + ": " + e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the thread to stop after {@link #shutdown}.
+     *
+     * @return false if it was still running after {@code millis}
+     */
+    public boolean awaitTermination(long millis) throws InterruptedException {
+        thread.join(millis);
+        return !thread.isAlive();
+    }
+
+    private void submit(Runnable command) {
+        synchronized (commands) {
+            commands.add(command);
+            commands.notify();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Runnable command;
+            synchronized (commands) {
+                while (commands.isEmpty()) {
+                    if (!running) {
+                        return;
+                    }
+                    try {
+                        commands.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                command = commands.poll();
+            }
+            command.run();
+        }
+    }
+
+    /**
+     * Queues a move whose key was pressed at {@code pressedNanos}.
+     *
+     * @return false when too many moves are pending and this one got dropped
+     */
+    public boolean move(Direction direction, long pressedNanos) {
+        synchronized (commands) {
+            if (!moves.offer(direction, pressedNanos)) {
+                return false;
+            }
+            commands.add(commitMove);
+            commands.notify();
+            return true;
+        }
+    }
+
+    private void commitMove() {
+        Direction direction;
+        synchronized (commands) {
+            direction = moves.peek();
+            if (engine.isGameOver()) {
+                moves.drop();
+                return;
+            }
+        }
+        GameEvents.Move event = new GameEvents.Move();
+        boolean measured = Metrics.ENABLED || event.isEnabled();
+        long start = measured ? System.nanoTime() : 0;
+        long allocated = measured ? Metrics.allocatedBytes() : 0;
+        event.begin();
+        int cell = -1;
+        long spawnTime = 0;
+        if (engine.move(direction) > 0) {
+            long spawnStart = measured ? System.nanoTime() : 0;
+            cell = engine.spawnRandomTile();
+            spawnTime = measured ? System.nanoTime() - spawnStart : 0;
+            history.record(engine, direction);
+        }
+        synchronized (commands) {
+            moves.remove();
+        }
+        MoveDiff diff = obtain().captureMove(engine, direction, cell);
+        event.end();
+        if (measured) {
+            long checkStart = System.nanoTime();
+            engine.isGameOver();
+            long checkTime = System.nanoTime() - checkStart;
+            long logicTime = checkStart - start;
+            allocated = Metrics.allocatedBytes() - allocated;
+            if (Metrics.ENABLED) {
+                LOGIC_TIME.record(logicTime);
+                SPAWN_TIME.record(spawnTime);
+                GAME_OVER_CHECK_TIME.record(checkTime);
+                TILES_MOVED.record(diff.getSlides());
+                TILES_MERGED.record(diff.getMerges());
+                ALLOCATED.record(allocated);
+            }
+            if (event.shouldCommit()) {
+                event.direction = direction.name();
+                event.changed = diff.isChanged();
+                event.tilesMoved = diff.getSlides();
+                event.tilesMerged = diff.getMerges();
+                event.points = diff.getPoints();
+                event.spawnTime = spawnTime;
+                event.gameOverCheckTime = checkTime;
+                event.allocated = allocated;
+                event.commit();
+            }
+        }
+        publish(diff);
+    }
+
+    /**
+     * Starts a new recorded game.
+     */
+    public void newGame() {
+        submit(() -> startGame(engine.getRandom().nextLong(), true));
+    }
+
+    /**
+     * Starts the game of a seed, without recording it.
+     */
+    public void newGame(long seed) {
+        submit(() -> startGame(seed, false));
+    }
+
+    private void startGame(long seed, boolean record) {
+        engine.clear();
+        engine.startGame(seed);
+        history.reset(engine);
+        publish(obtain().captureBoard(record ? MoveDiff.Kind.NEW_GAME : MoveDiff.Kind.REPLAY, engine, null));
+    }
+
+    public void save() {
+        submit(() -> {
+            if (store != null) {
+                store.save(SnapshotStore.MANUAL_SLOT, engine);
+            }
+        });
+    }
+
+    /**
+     * Replaces the game with the manually saved one, if there is one. Publishes the board either way.
+     */
+    public void restore() {
+        submit(() -> {
+            if (store != null && store.restore(SnapshotStore.MANUAL_SLOT, engine)) {
+                history.reset(engine);
+            }
+            publish(obtain().captureBoard(MoveDiff.Kind.RESTORE, engine, null));
+        });
+    }
+
+    /**
+     * Continues the game of the latest autosave, where the last session left it, or starts a new recorded
+     * game if there is none or it was over.
+     */
+    public void resume() {
+        submit(() -> {
+            int slot = store == null ? -1 : store.latestAutosave();
+            if (slot >= 0 && store.restore(slot, engine) && !engine.isGameOver()) {
+                history.reset(engine);
+                publish(obtain().captureBoard(MoveDiff.Kind.RESTORE, engine, null));
+            } else {
+                startGame(engine.getRandom().nextLong(), true);
+            }
+        });
+    }
+
+    /**
+     * Takes back the last move, if any. Publishes the board either way.
+     */
+    public void undo() {
+        submit(() -> {
+            Direction undone = history.undo(engine);
+            publish(obtain().captureBoard(MoveDiff.Kind.UNDO, engine, undone));
+        });
+    }
+
+    /**
+     * Plays the last undone move again, if any. Publishes the board either way.
+     */
+    public void redo() {
+        submit(() -> {
+            Direction redone = history.redo(engine);
+            publish(obtain().captureBoard(MoveDiff.Kind.REDO, engine, redone));
+        });
+    }
+
+    private MoveDiff obtain() {
+        synchronized (pool) {
+            MoveDiff diff = pool.poll();
+            return diff != null ? diff : new MoveDiff();
+        }
+    }
+
+    /**
+     * Hands a published diff back for reuse; the receiver must not touch it afterwards.
+     */
+    public void release(MoveDiff diff) {
+        synchronized (pool) {
+            if (pool.size() < POOL_SIZE) {
+                pool.push(diff);
+            }
+        }
+    }
+
+    private void publish(MoveDiff diff) {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onDiff(diff);
+        }
+        synchronized (outboxLock) {
+            outbox.add(diff);
+            if (deliveryScheduled) {
+                return;
+            }
+            deliveryScheduled = true;
+        }
+        publisher.execute(this::deliver);
+    }
+
+    private void deliver() {
+        List<MoveDiff> batch;
+        synchronized (outboxLock) {
+            batch = outbox;
+            outbox = delivered;
+            delivered = batch;
+            deliveryScheduled = false;
+        }
+        receiver.accept(batch);
+        batch.clear();
+    }
+
+    /**
+     * Counts a move whose animation got cut short by the next one.
+     */
+    public void countCoalesced() {
+        synchronized (commands) {
+            moves.countCoalesced();
+        }
+    }
+
+    /**
+     * Returns a summary of the input statistics: dropped and coalesced moves and commit latencies.
+     */
+    public String getInputStatistics() {
+        synchronized (commands) {
+            return moves.toString();
+        }
+    }
+}
@@ -1,11 +1,15 @@
-import javafx.animation.*;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
 import javafx.scene.Group;
 import javafx.util.Duration;
 
-import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
 /**
  * (File info).
@@ -14,249 +18,482 @@ import java.util.stream.Stream;
  */
 public class GameManager extends Group {
 
-    private static final Duration ANIMATION_EXISTING_TILE = Duration.millis(55);
-    private static final Duration ANIMATION_NEWLY_ADDED_TILE = Duration.millis(100);
-    private static final Duration ANIMATION_MERGED_TILE = Duration.millis(70);
+    /**
+     * How long closing the game waits for the loop to write out the moves still queued
+     */
+    private static final long SHUTDOWN_MILLIS = 5000;
 
-    private final int gridSize;
+    private static final Metrics.Distribution ANIMATION_SETUP_TIME =
+            Metrics.distribution("fx.animationSetupTime", "ns");
+    private static final Metrics.Distribution TILES_ANIMATED = Metrics.distribution("fx.tilesAnimated", "tiles");
+    private static final Metrics.Counter TILES_CREATED = Metrics.counter("fx.tilesCreated");
 
-    private volatile boolean movingTiles = false;
-    private final List<Location> locations = new ArrayList<>();
-    private final Map<Location, Tile> gameGrid;
-    private final Set<Tile> mergedToBeRemoved = new HashSet<>();
+    private final int gridSize;
 
     private final Board board;
     private final GridOperator gridOperator;
+    private final CanvasRenderer renderer;
+    private final GameLoop loop;
+    private final MoveStatistics statistics = new MoveStatistics();
+    private final HintSearch hints;
+
+    /**
+     * Boards requested from the loop and not received yet: moves arriving before them belong to the board
+     * being replaced and are skipped
+     */
+    private int pendingBoards;
+    private MoveLog playback;
+    private int playbackMove;
+
+    /**
+     * Best move found so far for the latest board, null if none yet
+     */
+    private Direction hint;
+    private boolean hintShown;
+    private Timeline autoplay;
+    /**
+     * Search generation when the last command was sent: until the loop ran it, hints are for the old board
+     */
+    private long staleGeneration = -1;
 
     public GameManager() {
         this(GridOperator.DEFAULT_GRID_SIZE);
     }
 
     public GameManager(int gridSize) {
+        this(gridSize, false);
+    }
+
+    /**
+     * @param canvasRenderer paint the board on a single {@link CanvasRenderer} instead of one node per tile
+     */
+    public GameManager(int gridSize, boolean canvasRenderer) {
+        this(gridSize, canvasRenderer, UndoHistory.DEFAULT_DEPTH);
+    }
+
+    /**
+     * @param undoDepth the number of moves that can be undone
+     */
+    public GameManager(int gridSize, boolean canvasRenderer, int undoDepth) {
         this.gridSize = gridSize;
-        this.gameGrid = new HashMap<>();
         gridOperator = new GridOperator(gridSize);
-        board = new Board(gridOperator);
+        renderer = canvasRenderer ? new CanvasRenderer(gridOperator) : null;
+        board = new Board(gridOperator, renderer);
         this.getChildren().add(board);
+        loop = new GameLoop(new GameEngine(gridSize), undoDepth, openStore(gridSize), Platform::runLater, this::show);
+        loop.addListener(new MoveRecorder(gridSize, MoveLog.defaultDirectory()));
+        loop.addListener(statistics);
+        // the solver only knows 4x4 boards
+        hints = gridSize == BitBoard.SIZE ? new HintSearch(Platform::runLater, this::receiveHint) : null;
+        if (hints != null) {
+            hints.setPlayer(loadNetwork());
+            loop.addListener(hints);
+        }
+        TrajectoryWriter trajectories = gridSize == BitBoard.SIZE ? openTrajectories() : null;
+        if (trajectories != null) {
+            loop.addListener(trajectories);
+        }
 
         board.resetGameProperty().addListener((ov, b, b1) -> {
             if (b1) {
                 startGame();
             }
         });
-        board.clearGameProperty().addListener((ov, b, b1) -> {
+        board.saveGameProperty().addListener((ov, b, b1) -> {
+            if (b1) {
+                saveGame();
+            }
+        });
+        board.restoreGameProperty().addListener((ov, b, b1) -> {
             if (b1) {
-                initializeGameGrid();
+                restoreGame();
+            }
+        });
+        board.undoGameProperty().addListener((ov, b, b1) -> {
+            if (b1) {
+                undo();
+            }
+        });
+        board.redoGameProperty().addListener((ov, b, b1) -> {
+            if (b1) {
+                redo();
             }
         });
 
-        initializeGameGrid();
-        startGame();
+        loop.start();
+        resumeGame();
     }
 
-    public void initializeGameGrid() {
-        gameGrid.clear();
-        locations.clear();
-        gridOperator.traverseGrid((x, y) -> {
-            Location thisloc = new Location(x, y);
-            locations.add(thisloc);
-            gameGrid.put(thisloc, null);
-            return 0;
-        });
+    private static SnapshotStore openStore(int gridSize) {
+        try {
+            return new SnapshotStore(SnapshotStore.defaultPath(gridSize), gridSize, SnapshotStore.DEFAULT_SLOTS);
+        } catch (IOException e) {
+            System.err.println("Saving disabled: " + e);
+            return null;
+        }
     }
 
-    public void startGame() {
-        Tile tile0 = Tile.newRandomTile();
-        List<Location> randomLocs = new ArrayList<>(locations);
-        Collections.shuffle(randomLocs);
-        Iterator<Location> locs = randomLocs.stream().limit(2).iterator();
-        tile0.setLocation(locs.next());
-
-        Tile tile1 = null;
-        if (new Random().nextFloat() <= 0.8) {
-            tile1 = Tile.newRandomTile();
-            if (tile1.getValue() == 4 && tile0.getValue() == 4) {
-                tile1 = Tile.newTile(2);
-            }
-            tile1.setLocation(locs.next());
+    /**
+     * Maps the trained network named by the {@code game.network} property, or the default one, so that hints
+     * come from it instead of the solver. Returns null without a network.
+     */
+    private static NTupleNetwork loadNetwork() {
+        String name = System.getProperty("game.network");
+        Path path = name != null ? Paths.get(name) : NTupleNetwork.defaultPath();
+        if (name == null && !Files.exists(path)) {
+            return null;
         }
+        try {
+            return NTupleNetwork.load(path);
+        } catch (IOException e) {
+            System.err.println("Network not loaded: " + e);
+            return null;
+        }
+    }
 
-        Arrays.asList(tile0, tile1).stream().filter(Objects::nonNull)
-                .forEach(t -> gameGrid.put(t.getLocation(), t));
+    /**
+     * Opens the file named by the {@code game.trajectories} property, if set, to record every move played.
+     */
+    private static TrajectoryWriter openTrajectories() {
+        String name = System.getProperty("game.trajectories");
+        if (name == null) {
+            return null;
+        }
+        try {
+            return new TrajectoryWriter(name.isEmpty() ? TrajectoryWriter.defaultPath() : Paths.get(name));
+        } catch (IOException e) {
+            System.err.println("Trajectories not recorded: " + e);
+            return null;
+        }
+    }
 
-        redrawTilesInGameGrid();
+    public void saveGame() {
+        loop.save();
+    }
 
+    /**
+     * Replaces the board with the manually saved game, if there is one.
+     */
+    public void restoreGame() {
+        playback = null;
+        requestBoard();
+        loop.restore();
     }
 
-    private void redrawTilesInGameGrid() {
-        gameGrid.values().stream().filter(Objects::nonNull).forEach(board::addTile);
+    /**
+     * Continues the game the last session left, from its latest autosave.
+     */
+    private void resumeGame() {
+        requestBoard();
+        loop.resume();
     }
 
-    public void moveTiles(Direction direction) {
-        synchronized (gameGrid) {
-            if (movingTiles) {
-                return;
-            }
+    /**
+     * Takes back the last move. Only the tiles that differ from the previous state are redrawn.
+     */
+    public void undo() {
+        if (playback == null) {
+            requestBoard();
+            loop.undo();
         }
+    }
 
-        mergedToBeRemoved.clear();
-        ParallelTransition parallelTransition = new ParallelTransition();
-        gridOperator.sortGrid(direction);
-        final int tilesWereMoved = gridOperator.traverseGrid((x, y) -> {
-            AtomicInteger merged = new AtomicInteger();
-            Location thisLoc = new Location(x, y);
-            Optional<Tile> optionalTile = optionalTile(thisLoc);
-            if (optionalTile.isPresent()) {
-                Location farthest = findFarthestLocation(thisLoc, direction);
-                Location nextLoc = farthest.offset(direction);
-                optionalTile(nextLoc).filter(t -> t.isMergable(optionalTile) && !t.isMerged())
-                        .ifPresent(t -> {
-                            Tile tile = optionalTile.get();
-                            t.merge(tile);
-                            t.toFront();
-                            gameGrid.put(nextLoc, t);
-                            gameGrid.replace(thisLoc, null);
-
-                            parallelTransition.getChildren().add(animateExistingTile(tile, t.getLocation()));
-                            parallelTransition.getChildren().add(animateMergedTile(t));
-                            mergedToBeRemoved.add(tile);
-
-                            merged.set(1);
-                        });
-
-                if (merged.get() == 0 && farthest.isValidFor(gridSize) && !farthest.equals(thisLoc)) {
-                    Tile tile = optionalTile.get();
-                    tile.setLocation(farthest);
-                    gameGrid.put(farthest, optionalTile.get());
-                    gameGrid.replace(thisLoc, null);
-                    parallelTransition.getChildren().add(animateExistingTile(optionalTile.get(), farthest));
-                    merged.set(1);
-                }
-            }
-            return merged.get();
-        });
+    /**
+     * Plays the last undone move again, with the tile it spawned.
+     */
+    public void redo() {
+        if (playback == null) {
+            requestBoard();
+            loop.redo();
+        }
+    }
 
-        if (parallelTransition.getChildren().size() > 0) {
-            parallelTransition.setOnFinished(e -> {
-                board.getGridGroup().getChildren().removeAll(mergedToBeRemoved);
+    /**
+     * Starts the recorded game over and plays its moves back with animations. Keys are ignored meanwhile.
+     */
+    public void playback(MoveLog log) {
+        if (log.getGridSize() != gridSize) {
+            throw new IllegalArgumentException("Log is for a " + log.getGridSize() + "x" + log.getGridSize() + " grid");
+        }
+        playback = null;
+        requestBoard();
+        loop.newGame(log.getSeed());
+        playback = log;
+        playbackMove = 0;
+    }
 
-                gameGrid.values().stream().filter(Objects::nonNull).forEach(Tile::clearMerge);
+    private void playNextMove() {
+        if (playback == null) {
+            return;
+        }
+        if (playbackMove == playback.size()) {
+            playback = null;
+            return;
+        }
+        loop.move(playback.get(playbackMove++), System.nanoTime());
+    }
 
-                Location randomAvailable = findRandomAvailableLocation();
-                if (randomAvailable == null && mergeMovementsAvailable() == 0) {
-                    board.setGameOver(true);
-                } else if (randomAvailable != null && tilesWereMoved > 0) {
-                    synchronized (gameGrid) {
-                        movingTiles = false;
-                    }
-                    addAndAnimateRandomTile(randomAvailable);
-                }
-            });
+    /**
+     * Shows or hides an arrow for the best move, searched in the background after every move. Only available
+     * on a 4x4 grid.
+     */
+    public void setHintShown(boolean shown) {
+        hintShown = shown && hints != null;
+        board.showHint(hintShown ? hint : null);
+        updateHints();
+    }
 
-            synchronized (gameGrid) {
-                movingTiles = true;
-            }
+    public boolean isHintShown() {
+        return hintShown;
+    }
 
-            parallelTransition.play();
+    /**
+     * Plays the best move found so far {@code movesPerSecond} times a second, until the game is over or
+     * {@link #stopAutoplay()} is called. Only available on a 4x4 grid.
+     */
+    public void startAutoplay(double movesPerSecond) {
+        stopAutoplay();
+        if (hints == null) {
+            return;
         }
-
+        autoplay = new Timeline(new KeyFrame(Duration.millis(1000 / movesPerSecond), e -> autoplayMove()));
+        autoplay.setCycleCount(Animation.INDEFINITE);
+        autoplay.play();
+        updateHints();
     }
 
-    private Optional<Tile> optionalTile(Location loc) {
-        return Optional.ofNullable(gameGrid.get(loc));
+    public void stopAutoplay() {
+        if (autoplay != null) {
+            autoplay.stop();
+            autoplay = null;
+            updateHints();
+        }
     }
 
-    private Location findFarthestLocation(Location location, Direction direction) {
-        Location farthest;
+    public boolean isAutoplaying() {
+        return autoplay != null;
+    }
 
-        do {
-            farthest = location;
-            location = farthest.offset(direction);
-        } while (gridOperator.isValidLocation(location) && !optionalTile(location).isPresent());
+    private void updateHints() {
+        if (hints != null) {
+            hints.setEnabled(hintShown || autoplay != null);
+        }
+    }
 
-        return farthest;
+    private void receiveHint(Direction direction) {
+        if (hints.getGeneration() == staleGeneration) {
+            return;
+        }
+        hint = direction;
+        if (hintShown) {
+            board.showHint(direction);
+        }
     }
 
-    public void move(Direction direction) {
-        if (!board.isLayerOn().get()) {
-            moveTiles(direction);
+    private void autoplayMove() {
+        if (board.isLayerOn().get()) {
+            stopAutoplay();
+        } else if (hint != null && playback == null && pendingBoards == 0) {
+            move(hint);
         }
     }
 
-    private int mergeMovementsAvailable() {
-        final AtomicInteger pairsOfMergableTiles = new AtomicInteger();
+    private void discardHint() {
+        hint = null;
+        board.showHint(null);
+        if (hints != null) {
+            staleGeneration = hints.getGeneration();
+        }
+    }
 
-        Stream.of(Direction.UP, Direction.LEFT).parallel().forEach(direction -> {
-            gridOperator.traverseGrid((x, y) -> {
-                Location thisLoc = new Location(x, y);
-                optionalTile(thisLoc).ifPresent(t -> {
-                    if (t.isMergable(optionalTile(thisLoc.offset(direction)))) {
-                        pairsOfMergableTiles.incrementAndGet();
-                    }
-                });
-                return 0;
-            });
-        });
+    /**
+     * Stops the hint search, then runs the pending commands and stops the game loop, which closes the
+     * snapshots and the trajectories once the last move reached them.
+     */
+    public void shutdown() {
+        stopAutoplay();
+        if (hints != null) {
+            hints.shutdown();
+        }
+        loop.shutdown();
+        try {
+            if (!loop.awaitTermination(SHUTDOWN_MILLIS)) {
+                System.err.println("Game loop still running after " + SHUTDOWN_MILLIS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        return pairsOfMergableTiles.get();
+    public void startGame() {
+        playback = null;
+        requestBoard();
+        loop.newGame();
     }
 
-    private Location findRandomAvailableLocation() {
-        List<Location> availableLocations = locations.stream().filter(l -> gameGrid.get(l) == null)
-                .collect(Collectors.toList());
+    /**
+     * Jumps to the end of any animation and ignores the moves still on their way from the loop.
+     */
+    private void requestBoard() {
+        fastForward();
+        discardHint();
+        pendingBoards++;
+    }
 
-        if (availableLocations.isEmpty()) {
-            return null;
+    /**
+     * Receives a batch of diffs from the loop, on the FX thread. Every move but the last one is only shown
+     * in its end state.
+     */
+    private void show(List<MoveDiff> diffs) {
+        for (int i = 0; i < diffs.size(); i++) {
+            MoveDiff diff = diffs.get(i);
+            if (diff.isBoard()) {
+                pendingBoards--;
+                showBoard(diff);
+            } else if (pendingBoards > 0) {
+                loop.release(diff);
+            } else {
+                if (isAnimating()) {
+                    loop.countCoalesced();
+                    fastForward();
+                }
+                if (diff.isChanged()) {
+                    showMove(diff);
+                } else {
+                    // a move that changes nothing ends a playback that diverged
+                    playback = null;
+                    loop.release(diff);
+                }
+            }
         }
+    }
 
-        Collections.shuffle(availableLocations);
-        return availableLocations.get(0);
+    /**
+     * Shows a whole board, recycling or adding only the tiles that changed.
+     */
+    private void showBoard(MoveDiff diff) {
+        board.clearOverlay();
+        if (renderer != null) {
+            renderer.draw(diff);
+        } else {
+            board.showBoard(diff);
+        }
+        boolean gameOver = diff.isGameOver();
+        loop.release(diff);
+        if (gameOver) {
+            board.setGameOver(true);
+        } else if (pendingBoards == 0) {
+            playNextMove();
+        }
     }
 
-    private Timeline animateExistingTile(Tile tile, Location newLocation) {
-        Timeline timeline = new Timeline();
-        KeyValue kvX = new KeyValue(tile.layoutXProperty(), newLocation.getLayoutX(Board.CELL_SIZE) - (tile.getMinHeight() / 2), Interpolator.EASE_OUT);
-        KeyValue kvY = new KeyValue(tile.layoutYProperty(), newLocation.getLayoutY(Board.CELL_SIZE) - (tile.getMinHeight() / 2), Interpolator.EASE_OUT);
+    /**
+     * Animates a move, then its spawn.
+     */
+    private void showMove(MoveDiff diff) {
+        GameEvents.Animation event = new GameEvents.Animation();
+        boolean measured = Metrics.ENABLED || event.isEnabled();
+        long start = measured ? System.nanoTime() : 0;
+        long created = board.getTilesCreated();
+        event.begin();
+        if (renderer != null) {
+            renderer.animateMove(diff, () -> showSpawn(diff));
+        } else {
+            board.animateMove(diff, () -> showSpawn(diff));
+        }
+        if (measured) {
+            recordAnimation(event, "move", start, diff.getSlides() + 2 * diff.getMerges(), created);
+        }
+    }
 
-        KeyFrame kfX = new KeyFrame(ANIMATION_EXISTING_TILE, kvX);
-        KeyFrame kfY = new KeyFrame(ANIMATION_EXISTING_TILE, kvY);
+    private void showSpawn(MoveDiff diff) {
+        int cell = diff.getSpawnCell();
+        if (cell < 0) {
+            afterSpawn(diff);
+            return;
+        }
+        GameEvents.Animation event = new GameEvents.Animation();
+        boolean measured = Metrics.ENABLED || event.isEnabled();
+        long start = measured ? System.nanoTime() : 0;
+        long created = board.getTilesCreated();
+        event.begin();
+        if (renderer != null) {
+            renderer.animateSpawn(cell, diff.getSpawnExponent(), () -> afterSpawn(diff));
+        } else {
+            board.animateSpawn(cell, BitBoard.valueOf(diff.getSpawnExponent()), () -> afterSpawn(diff));
+        }
+        if (measured) {
+            recordAnimation(event, "spawn", start, 1, created);
+        }
+    }
 
-        timeline.getKeyFrames().addAll(kfX, kfY);
+    private void recordAnimation(GameEvents.Animation event, String kind, long start, int tiles, long createdBefore) {
+        event.end();
+        long time = System.nanoTime() - start;
+        int created = (int) (board.getTilesCreated() - createdBefore);
+        if (Metrics.ENABLED) {
+            ANIMATION_SETUP_TIME.record(time);
+            TILES_ANIMATED.record(tiles);
+            TILES_CREATED.add(created);
+        }
+        if (event.shouldCommit()) {
+            event.kind = kind;
+            event.tilesAnimated = tiles;
+            event.tilesCreated = created;
+            event.commit();
+        }
+    }
 
-        return timeline;
+    private void afterSpawn(MoveDiff diff) {
+        boolean gameOver = diff.isGameOver();
+        loop.release(diff);
+        if (gameOver) {
+            playback = null;
+            board.setGameOver(true);
+        } else {
+            playNextMove();
+        }
     }
 
-    private SequentialTransition animateMergedTile(Tile tile) {
-        final ScaleTransition scale0 = new ScaleTransition(ANIMATION_MERGED_TILE, tile);
-        scale0.setToX(1.2);
-        scale0.setToY(1.2);
-        scale0.setInterpolator(Interpolator.EASE_IN);
+    public void move(Direction direction) {
+        move(direction, System.nanoTime());
+    }
 
-        final ScaleTransition scale1 = new ScaleTransition(ANIMATION_MERGED_TILE, tile);
-        scale1.setToX(1.0);
-        scale1.setToY(1.0);
-        scale1.setInterpolator(Interpolator.EASE_OUT);
+    /**
+     * Sends a move whose key was pressed at {@code pressedNanos} to the game loop. The move is committed
+     * there at once; its animation cuts short whatever is still animating when it comes back.
+     */
+    public void move(Direction direction, long pressedNanos) {
+        if (playback == null && !board.isLayerOn().get() && loop.move(direction, pressedNanos)) {
+            discardHint();
+        }
+    }
 
-        return new SequentialTransition(scale0, scale1);
+    private boolean isAnimating() {
+        return renderer != null ? renderer.isAnimating() : board.isAnimating();
     }
 
-    private void addAndAnimateRandomTile(Location randomLocation) {
-        Tile tile = board.addRandomTile(randomLocation);
-        gameGrid.put(tile.getLocation(), tile);
+    private void fastForward() {
+        while (isAnimating()) {
+            if (renderer != null) {
+                renderer.finishAnimation();
+            } else {
+                board.finishAnimation();
+            }
+        }
+    }
 
-        animateNewlyAddedTile(tile).play();
+    /**
+     * Returns what the moves of this session did, counted from the diff stream.
+     */
+    public MoveStatistics getStatistics() {
+        return statistics;
     }
 
-    private ScaleTransition animateNewlyAddedTile(Tile tile) {
-        final ScaleTransition scaleTransition = new ScaleTransition(ANIMATION_NEWLY_ADDED_TILE, tile);
-        scaleTransition.setToX(1.0);
-        scaleTransition.setToY(1.0);
-        scaleTransition.setInterpolator(Interpolator.EASE_OUT);
-        scaleTransition.setOnFinished(e -> {
-            if (this.gameGrid.values().parallelStream().noneMatch(Objects::isNull) && mergeMovementsAvailable() == 0) {
-                board.setGameOver(true);
-            }
-        });
-        return scaleTransition;
+    /**
+     * Returns a summary of the dropped and coalesced moves and of the key press to commit latencies.
+     */
+    public String getInputStatistics() {
+        return loop.getInputStatistics();
     }
 }
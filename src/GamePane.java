@@ -2,6 +2,9 @@ import javafx.scene.Node;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.StackPane;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 /**
  * (File info).
  *
@@ -9,11 +12,23 @@ import javafx.scene.layout.StackPane;
  */
 public class GamePane extends StackPane {
 
+    private static final int AUTOPLAY_RATE = Integer.getInteger("game.autoplayRate", 4);
+
     private GameManager gameManager;
 
     public GamePane() {
-        gameManager = new GameManager();
+        gameManager = new GameManager(Integer.getInteger("game.gridSize", GridOperator.DEFAULT_GRID_SIZE),
+                "canvas".equals(System.getProperty("game.renderer")),
+                Integer.getInteger("game.undoDepth", UndoHistory.DEFAULT_DEPTH));
         getChildren().add(gameManager);
+        String replay = System.getProperty("game.replay");
+        if (replay != null) {
+            try {
+                gameManager.playback(MoveLog.read(Paths.get(replay)));
+            } catch (IOException e) {
+                System.err.println("Can't play back " + replay + ": " + e);
+            }
+        }
         addKeyHandler(this);
         setFocusTraversable(true);
         this.setOnMouseClicked(e -> requestFocus());
@@ -21,15 +36,35 @@ public class GamePane extends StackPane {
 
     private void addKeyHandler(Node node) {
         node.setOnKeyPressed(key -> {
+            long pressedNanos = System.nanoTime();
             KeyCode keyCode = key.getCode();
-            if (keyCode.isArrowKey()) {
-                Direction direction = Direction.valueFor(keyCode);
-                move(direction);
+            if (key.isShortcutDown() && keyCode == KeyCode.Z) {
+                gameManager.undo();
+            } else if (key.isShortcutDown() && keyCode == KeyCode.Y) {
+                gameManager.redo();
+            } else if (keyCode == KeyCode.H) {
+                gameManager.setHintShown(!gameManager.isHintShown());
+            } else if (keyCode == KeyCode.A) {
+                if (gameManager.isAutoplaying()) {
+                    gameManager.stopAutoplay();
+                } else {
+                    gameManager.startAutoplay(AUTOPLAY_RATE);
+                }
+            } else if (keyCode.isArrowKey()) {
+                Direction direction = Direction.valueOf(keyCode.name());
+                move(direction, pressedNanos);
             }
         });
     }
 
-    private void move(Direction direction) {
-        gameManager.move(direction);
+    /**
+     * Stops the game loop once its pending commands ran.
+     */
+    public void shutdown() {
+        gameManager.shutdown();
+    }
+
+    private void move(Direction direction, long pressedNanos) {
+        gameManager.move(direction, pressedNanos);
     }
 }
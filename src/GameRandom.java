@@ -0,0 +1,53 @@
+/**
+ * SplitMix64 generator whose whole state is one {@code long}, so a game's random sequence can be saved and
+ * restored along with the board.
+ *
+ * @author Bram
+ */
+public class GameRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9E37_79B9_7F4A_7C15L;
+
+    private long state;
+
+    public GameRandom() {
+        this(System.nanoTime() * GOLDEN_GAMMA ^ System.identityHashCode(Thread.currentThread()));
+    }
+
+    public GameRandom(long seed) {
+        this.state = seed;
+    }
+
+    /**
+     * Returns a new generator seeded from this one, for another thread or task.
+     */
+    public GameRandom split() {
+        return new GameRandom(nextLong());
+    }
+
+    public long nextLong() {
+        long z = (state += GOLDEN_GAMMA);
+        z = (z ^ (z >>> 30)) * 0xBF58_476D_1CE4_E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D0_49BB_1331_11EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns a value in {@code [0, bound)}.
+     */
+    public int nextInt(int bound) {
+        return (int) (((nextLong() >>> 33) * bound) >>> 31);
+    }
+
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state;
+    }
+}
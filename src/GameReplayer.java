@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Headless replay of recorded {@link MoveLog}s at engine speed, without any rendering. Run over a corpus of
+ * logs it works as a regression check: every game has to replay move for move and end on the recorded score.
+ *
+ * Usage: {@code GameReplayer <log or directory>...}
+ *
+ * @author Bram
+ */
+public class GameReplayer {
+
+    private GameEngine engine;
+
+    /**
+     * Replays a log on a reused engine.
+     *
+     * @return the engine in its final state, or null when a recorded move no longer changes the board
+     */
+    public GameEngine replay(MoveLog log) {
+        if (engine == null || engine.getGridSize() != log.getGridSize()) {
+            engine = new GameEngine(log.getGridSize());
+        }
+        return replay(log, engine) ? engine : null;
+    }
+
+    /**
+     * Clears the engine and replays a log on it.
+     *
+     * @return false when a recorded move no longer changes the board
+     */
+    public static boolean replay(MoveLog log, GameEngine engine) {
+        engine.clear();
+        engine.startGame(log.getSeed());
+        for (int i = 0; i < log.size(); i++) {
+            if (engine.move(log.get(i)) == 0) {
+                return false;
+            }
+            engine.spawnRandomTile();
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String arg : args.length > 0 ? args : new String[]{MoveLog.defaultDirectory().toString()}) {
+            Path path = Paths.get(arg);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> logs = Files.walk(path)) {
+                    logs.filter(p -> p.toString().endsWith(MoveLog.EXTENSION)).sorted().forEach(files::add);
+                }
+            } else {
+                files.add(path);
+            }
+        }
+
+        List<MoveLog> logs = new ArrayList<>(files.size());
+        for (Path file : files) {
+            logs.add(MoveLog.read(file));
+        }
+
+        GameReplayer replayer = new GameReplayer();
+        long moves = 0;
+        int failed = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < logs.size(); i++) {
+            MoveLog log = logs.get(i);
+            GameEngine engine = replayer.replay(log);
+            if (engine == null) {
+                System.out.println(files.get(i) + ": diverged");
+                failed++;
+            } else if (log.getScore() >= 0 && engine.getScore() != log.getScore()) {
+                System.out.println(files.get(i) + ": score " + engine.getScore() + ", recorded " + log.getScore());
+                failed++;
+            }
+            moves += log.size();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d games, %d failed, %d moves in %.3f s, %.0f moves/s%n", logs.size(), failed, moves,
+                seconds, seconds == 0 ? 0 : moves / seconds);
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless server hosting many games at once, for bots and load tests, over a line based TCP protocol on the
+ * loopback interface. Every connection gets a thread of its own, a virtual one where the runtime has them.
+ * A session belongs to the connection that started it and is kept in that connection's own map, so only its
+ * thread ever touches it: other connections can't see it, and it ends with its connection. The only state
+ * shared between connections is the session count and the id sequence.
+ *
+ * One command per line, answered by one line:
+ * <pre>
+ * NEW [size [seed]]      OK id score over exponents
+ * MOVE id UP|RIGHT|DOWN|LEFT
+ * STATE id
+ * UNDO id
+ * CLOSE id               OK
+ * </pre>
+ * where {@code over} is 0 or 1 and {@code exponents} lists the cells row by row, separated by commas (0 is
+ * empty, 1 is a 2, ...). Errors are answered with {@code ERR message}.
+ *
+ * Usage: {@code GameServer [port]}, or {@code Game2048 --server [port]}
+ *
+ * @author Bram
+ */
+public class GameServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 2048;
+    public static final int MAX_GRID_SIZE = 64;
+    public static final int MAX_SESSIONS = Integer.getInteger("game.server.maxSessions", 100_000);
+    public static final int UNDO_DEPTH = Integer.getInteger("game.server.undoDepth", 16);
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = newThreadPerTaskExecutor();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    /**
+     * @param port the port to listen on, 0 for any free one
+     */
+    public GameServer(int port) throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+    }
+
+    /**
+     * Returns an executor running every task on a new virtual thread, or on a cached platform thread when
+     * the runtime has no virtual threads.
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    /**
+     * Accepts connections until the server is closed.
+     */
+    public void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            connections.execute(() -> serve(socket));
+        }
+    }
+
+    /**
+     * Accepts connections on a thread of its own.
+     */
+    public void start() {
+        connections.execute(() -> {
+            try {
+                serve();
+            } catch (IOException e) {
+                System.err.println("Server stopped: " + e);
+            }
+        });
+    }
+
+    private void serve(Socket socket) {
+        Map<Long, Session> owned = new HashMap<>();
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII))) {
+            s.setTcpNoDelay(true);
+            StringBuilder reply = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                reply.setLength(0);
+                handle(line, owned, reply);
+                reply.append('\n');
+                out.append(reply);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            sessionCount.addAndGet(-owned.size());
+        }
+    }
+
+    private void handle(String line, Map<Long, Session> owned, StringBuilder reply) {
+        String[] args = line.trim().split(" +");
+        try {
+            switch (args[0].toUpperCase()) {
+                case "NEW": {
+                    int size = args.length > 1 ? Integer.parseInt(args[1]) : GridOperator.DEFAULT_GRID_SIZE;
+                    if (size < 2 || size > MAX_GRID_SIZE) {
+                        reply.append("ERR grid size out of range: ").append(size);
+                        return;
+                    }
+                    Long seed = args.length > 2 ? Long.parseLong(args[2]) : null;
+                    // reserve the slot first, so concurrent NEWs can't overshoot the limit
+                    if (sessionCount.incrementAndGet() > MAX_SESSIONS) {
+                        sessionCount.decrementAndGet();
+                        reply.append("ERR too many sessions");
+                        return;
+                    }
+                    long id = nextId.getAndIncrement();
+                    Session session = new Session(id, size);
+                    owned.put(id, session);
+                    session.start(seed, reply);
+                    return;
+                }
+                case "MOVE": {
+                    Session session = find(args, owned, reply);
+                    if (session != null) {
+                        if (args.length < 3) {
+                            reply.append("ERR missing direction");
+                        } else {
+                            session.move(Direction.valueOf(args[2].toUpperCase()), reply);
+                        }
+                    }
+                    return;
+                }
+                case "STATE": {
+                    Session session = find(args, owned, reply);
+                    if (session != null) {
+                        session.state(reply);
+                    }
+                    return;
+                }
+                case "UNDO": {
+                    Session session = find(args, owned, reply);
+                    if (session != null) {
+                        session.undo(reply);
+                    }
+                    return;
+                }
+                case "CLOSE": {
+                    Session session = find(args, owned, reply);
+                    if (session != null) {
+                        owned.remove(session.id);
+                        sessionCount.decrementAndGet();
+                        reply.append("OK");
+                    }
+                    return;
+                }
+                default:
+                    reply.append("ERR unknown command: ").append(args[0]);
+            }
+        } catch (IllegalArgumentException e) {
+            reply.setLength(0);
+            reply.append("ERR ").append(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the session named by the command if the connection owns it; sessions of other connections
+     * are answered as missing.
+     */
+    private Session find(String[] args, Map<Long, Session> owned, StringBuilder reply) {
+        if (args.length < 2) {
+            reply.append("ERR missing session id");
+            return null;
+        }
+        Session session = owned.get(Long.parseLong(args[1]));
+        if (session == null) {
+            reply.append("ERR no session ").append(args[1]);
+        }
+        return session;
+    }
+
+    /**
+     * Stops accepting connections and closes the listening socket. Open connections end with their clients.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdown();
+    }
+
+    /**
+     * One game with its undo history, only used by the thread of the connection that started it.
+     */
+    private static class Session {
+
+        private final Long id;
+        private final GameEngine engine;
+        private final UndoHistory history;
+
+        Session(long id, int gridSize) {
+            this.id = id;
+            this.engine = new GameEngine(gridSize);
+            this.history = new UndoHistory(gridSize, UNDO_DEPTH);
+        }
+
+        void start(Long seed, StringBuilder reply) {
+            if (seed == null) {
+                engine.startGame();
+            } else {
+                engine.startGame(seed);
+            }
+            history.reset(engine);
+            state(reply);
+        }
+
+        void move(Direction direction, StringBuilder reply) {
+            if (!engine.isGameOver() && engine.move(direction) > 0) {
+                engine.spawnRandomTile();
+                history.record(engine, direction);
+            }
+            state(reply);
+        }
+
+        void undo(StringBuilder reply) {
+            history.undo(engine);
+            state(reply);
+        }
+
+        void state(StringBuilder reply) {
+            reply.append("OK ").append(id).append(' ').append(engine.getScore())
+                    .append(engine.isGameOver() ? " 1 " : " 0 ");
+            int cells = engine.getGridSize() * engine.getGridSize();
+            for (int cell = 0; cell < cells; cell++) {
+                if (cell > 0) {
+                    reply.append(',');
+                }
+                reply.append(engine.getExponent(cell));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        try (GameServer server = new GameServer(port)) {
+            System.out.println("Serving games on " + server.serverSocket.getLocalSocketAddress());
+            server.serve();
+        }
+    }
+}
@@ -1,9 +1,4 @@
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntBinaryOperator;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * (File info).
@@ -15,8 +10,8 @@ public class GridOperator {
     public static final int DEFAULT_GRID_SIZE = 4;
 
     private final int gridSize;
-    private final List<Integer> traversalX;
-    private final List<Integer> traversalY;
+    private final int[] traversal;
+    private final Location[] locations;
 
     public GridOperator() {
         this(DEFAULT_GRID_SIZE);
@@ -24,26 +19,34 @@ public class GridOperator {
 
     public GridOperator(int gridSize) {
         this.gridSize = gridSize;
-        this.traversalX = IntStream.range(0, gridSize).boxed().collect(Collectors.toList());
-        this.traversalY = IntStream.range(0, gridSize).boxed().collect(Collectors.toList());
+        this.traversal = new int[gridSize];
+        for (int i = 0; i < gridSize; i++) {
+            traversal[i] = i;
+        }
+        this.locations = new Location[gridSize * gridSize];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = new Location(i % gridSize, i / gridSize);
+        }
     }
 
     public int traverseGrid(IntBinaryOperator func) {
-        AtomicInteger at = new AtomicInteger();
-        traversalX.forEach(t_x -> traversalY.forEach(t_y -> at.addAndGet(func.applyAsInt(t_x, t_y))));
-        return at.get();
-    }
-
-    public void sortGrid(Direction direction){
-        Collections.sort(traversalX, direction.equals(Direction.RIGHT) ? Collections.reverseOrder() : Integer::compareTo);
-        Collections.sort(traversalY, direction.equals(Direction.DOWN)? Collections.reverseOrder() : Integer::compareTo);
+        int sum = 0;
+        for (int x : traversal) {
+            for (int y : traversal) {
+                sum += func.applyAsInt(x, y);
+            }
+        }
+        return sum;
     }
 
     public int getGridSize() {
         return gridSize;
     }
 
-    public boolean isValidLocation(Location loc){
-        return loc.getX() >= 0 && loc.getX() < gridSize && loc.getY() >= 0 && loc.getY() < gridSize;
+    /**
+     * Returns the shared {@link Location} instance of cell {@code y * gridSize + x}.
+     */
+    public Location getLocation(int cell) {
+        return locations[cell];
     }
 }
@@ -0,0 +1,130 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Looks for the best move of the running 4x4 game in the background. The board is followed from the diff
+ * stream; every diff cancels the running search and starts a new one, which keeps deepening
+ * for as long as the player waits. Each better answer is handed to the receiver through the publisher,
+ * unless the board changed in the meantime. With a player set, its move is the hint and nothing is searched.
+ *
+ * @author Bram
+ */
+public class HintSearch implements MoveDiffListener {
+
+    private final ExpectimaxSolver solver;
+    private final ExecutorService searcher;
+    private final Executor publisher;
+    private final Consumer<Direction> receiver;
+
+    /**
+     * Bumped on every change: a search only goes on, and its answers only count, while it is the latest
+     */
+    private final AtomicLong generation = new AtomicLong();
+    private volatile long board;
+    private volatile boolean gameOver = true;
+    private volatile boolean enabled;
+    private volatile Strategy player;
+
+    /**
+     * @param publisher runs the answers on the thread of the receiver
+     */
+    public HintSearch(Executor publisher, Consumer<Direction> receiver) {
+        // leave a core to the FX thread and one to the logic thread
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 2), publisher, receiver);
+    }
+
+    public HintSearch(int threads, Executor publisher, Consumer<Direction> receiver) {
+        this.solver = new ExpectimaxSolver(ExpectimaxSolver.DEFAULT_BUDGET_MILLIS, threads);
+        this.searcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hint-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.publisher = publisher;
+        this.receiver = receiver;
+    }
+
+    @Override
+    public void onDiff(MoveDiff diff) {
+        if (diff.isBoard()) {
+            board = diff.toBitBoard();
+        } else if (diff.isChanged()) {
+            board = diff.applyTo(board);
+        }
+        gameOver = diff.isGameOver();
+        restart();
+    }
+
+    /**
+     * Starts or stops searching. Disabled, the board is still followed but nothing is searched.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        restart();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Takes the hints from a {@link Strategy}, such as a trained {@link NTupleNetwork}, instead of the
+     * solver; null goes back to searching.
+     */
+    public void setPlayer(Strategy player) {
+        this.player = player;
+        restart();
+    }
+
+    public Strategy getPlayer() {
+        return player;
+    }
+
+    /**
+     * Returns the number of searches started: the answers received are for the board of the latest one.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    private void restart() {
+        long current = generation.incrementAndGet();
+        if (enabled && !gameOver) {
+            long position = board;
+            searcher.execute(() -> search(current, position));
+        }
+    }
+
+    private void search(long current, long position) {
+        if (generation.get() != current) {
+            return;
+        }
+        Strategy strategy = player;
+        if (strategy != null) {
+            Direction move = strategy.nextMove(position, new GameRandom(position));
+            publisher.execute(() -> {
+                if (generation.get() == current && move != null) {
+                    receiver.accept(move);
+                }
+            });
+            return;
+        }
+        solver.ponder(position, () -> generation.get() != current, result -> publisher.execute(() -> {
+            if (generation.get() == current) {
+                receiver.accept(result.getMove());
+            }
+        }));
+    }
+
+    /**
+     * Cancels the running search and stops the search threads.
+     */
+    public void shutdown() {
+        generation.incrementAndGet();
+        searcher.shutdownNow();
+        solver.shutdown();
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Bounded FIFO of pending moves with the time each key was pressed. Inputs arriving while the queue is full
+ * are dropped and counted; the time from key press to the move being committed to the engine is recorded
+ * in a {@link Histogram}.
+ *
+ * @author Bram
+ */
+public class InputQueue {
+
+    public static final int DEFAULT_CAPACITY = 8;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final Metrics.Counter DROPPED = Metrics.counter("input.dropped");
+    private static final Metrics.Distribution COMMIT_LATENCY = Metrics.distribution("input.commitLatency", "ns");
+
+    private final byte[] directions;
+    private final long[] pressedAt;
+    private int head;
+    private int size;
+
+    private long dropped;
+    private long coalesced;
+    private final Histogram commitLatency = new Histogram();
+
+    public InputQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public InputQueue(int capacity) {
+        directions = new byte[capacity];
+        pressedAt = new long[capacity];
+    }
+
+    /**
+     * Queues a move.
+     *
+     * @return false when the queue was full and the input got dropped
+     */
+    public boolean offer(Direction direction, long pressedNanos) {
+        if (size == directions.length) {
+            dropped++;
+            if (Metrics.ENABLED) {
+                DROPPED.increment();
+            }
+            return false;
+        }
+        int tail = (head + size) % directions.length;
+        directions[tail] = (byte) direction.ordinal();
+        pressedAt[tail] = pressedNanos;
+        size++;
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Direction peek() {
+        return DIRECTIONS[directions[head]];
+    }
+
+    /**
+     * Removes the head of the queue once its move is committed, recording the key press to commit latency.
+     */
+    public void remove() {
+        long latency = System.nanoTime() - pressedAt[head];
+        commitLatency.record(latency);
+        if (Metrics.ENABLED) {
+            COMMIT_LATENCY.record(latency);
+        }
+        GameEvents.Input event = new GameEvents.Input();
+        if (event.shouldCommit()) {
+            event.direction = DIRECTIONS[directions[head]].name();
+            event.commitLatency = latency;
+            event.commit();
+        }
+        head = (head + 1) % directions.length;
+        size--;
+    }
+
+    /**
+     * Removes the head of the queue without committing it, counting it as dropped.
+     */
+    public void drop() {
+        dropped++;
+        if (Metrics.ENABLED) {
+            DROPPED.increment();
+        }
+        head = (head + 1) % directions.length;
+        size--;
+    }
+
+    public void clear() {
+        dropped += size;
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Counts an input that cut the running animation short.
+     */
+    public void countCoalesced() {
+        coalesced++;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Returns the key press to commit latencies, in nanoseconds.
+     */
+    public Histogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "InputQueue{dropped=" + dropped + ", coalesced=" + coalesced + ", latency(ns) " + commitLatency + '}';
+    }
+}
@@ -1,5 +1,3 @@
-import java.util.Objects;
-
 /**
  * (File info).
  *
@@ -15,10 +13,6 @@ public class Location {
         this.y = y;
     }
 
-    public Location offset(Direction direction) {
-        return new Location(x + direction.getX(), y + direction.getY());
-    }
-
     public int getX() {
         return x;
     }
@@ -41,10 +35,6 @@ public class Location {
         return (x * CELL_SIZE) + CELL_SIZE / 2;
     }
 
-    public boolean isValidFor(int gridSize) {
-        return x >= 0 && x < gridSize && y >= 0 && y < gridSize;
-    }
-
     @Override
     public String toString() {
         return "Location{" + "x=" + x + ", y=" + y + '}';
@@ -61,6 +51,6 @@ public class Location {
 
     @Override
     public int hashCode() {
-        return Objects.hash(x, y);
+        return 31 * x + y;
     }
 }
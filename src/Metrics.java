@@ -0,0 +1,205 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process metrics: named {@link Histogram}s of latencies and sizes, and counters, dumped as text or JSON
+ * every few seconds. Off unless {@code -Dgame.metrics=true}; code measuring something checks {@link #ENABLED}
+ * first, and since it is a constant the JIT drops the whole measurement when it is false.
+ *
+ * Dumps go to standard error, or are appended to {@code game.metrics.file}, every {@code game.metrics.period}
+ * seconds (10 by default) in the {@code game.metrics.format} given, {@code text} or {@code json}.
+ *
+ * @author Bram
+ */
+public final class Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("game.metrics");
+
+    private static final long PERIOD_SECONDS = Long.getLong("game.metrics.period", 10);
+    private static final boolean JSON = "json".equals(System.getProperty("game.metrics.format"));
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final Map<String, Distribution> distributions = new ConcurrentSkipListMap<>();
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static ScheduledExecutorService dumper;
+    private static PrintStream sink;
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the distribution of the name, registering it on first use.
+     *
+     * @param unit what the values count, such as "ns" or "tiles"
+     */
+    public static Distribution distribution(String name, String unit) {
+        return distributions.computeIfAbsent(name, n -> new Distribution(unit));
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far, 0 where the JVM doesn't tell.
+     */
+    public static long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * Starts the periodic dumps, when metrics are enabled.
+     */
+    public static synchronized void start() {
+        if (!ENABLED || dumper != null) {
+            return;
+        }
+        PrintStream out = System.err;
+        String file = System.getProperty("game.metrics.file");
+        if (file != null) {
+            try {
+                out = new PrintStream(new FileOutputStream(file, true), true, "UTF-8");
+            } catch (IOException e) {
+                System.err.println("Dumping metrics to standard error: " + e);
+            }
+        }
+        sink = out;
+        PrintStream target = out;
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> target.println(dump(JSON)), PERIOD_SECONDS, PERIOD_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic dumps and writes a last one where they went.
+     */
+    public static synchronized void stop() {
+        if (dumper != null) {
+            dumper.shutdown();
+            try {
+                dumper.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            dumper = null;
+            sink.println(dump(JSON));
+            if (sink != System.err) {
+                sink.close();
+            }
+            sink = null;
+        }
+    }
+
+    /**
+     * Returns every metric, one per line, or as a single JSON object.
+     */
+    public static String dump(boolean json) {
+        StringBuilder out = new StringBuilder();
+        if (json) {
+            out.append("{\"time\":").append(System.currentTimeMillis()).append(",\"counters\":{");
+            String separator = "";
+            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+                out.append(separator).append('"').append(entry.getKey()).append("\":").append(entry.getValue().get());
+                separator = ",";
+            }
+            out.append("},\"distributions\":{");
+            separator = "";
+            for (Map.Entry<String, Distribution> entry : distributions.entrySet()) {
+                out.append(separator).append('"').append(entry.getKey()).append("\":");
+                entry.getValue().appendJson(out);
+                separator = ",";
+            }
+            out.append("}}");
+        } else {
+            out.append("metrics at ").append(System.currentTimeMillis()).append('\n');
+            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+                out.append("  ").append(entry.getKey()).append(' ').append(entry.getValue().get()).append('\n');
+            }
+            for (Map.Entry<String, Distribution> entry : distributions.entrySet()) {
+                out.append("  ").append(entry.getKey()).append(' ');
+                entry.getValue().appendText(out);
+                out.append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Distribution of recorded values. Recording takes the distribution's lock, which is uncontended when
+     * one thread records it.
+     */
+    public static class Distribution {
+
+        private final String unit;
+        private final Histogram histogram = new Histogram();
+
+        Distribution(String unit) {
+            this.unit = unit;
+        }
+
+        public synchronized void record(long value) {
+            histogram.record(Math.max(0, value));
+        }
+
+        synchronized void appendText(StringBuilder out) {
+            out.append('(').append(unit).append(") count=").append(histogram.getCount())
+                    .append(" min=").append(histogram.getMin());
+            for (double percentile : PERCENTILES) {
+                out.append(" p").append(label(percentile)).append('=').append(histogram.getValueAtPercentile(percentile));
+            }
+            out.append(" max=").append(histogram.getMax())
+                    .append(String.format(Locale.ROOT, " mean=%.1f", histogram.getMean()));
+        }
+
+        synchronized void appendJson(StringBuilder out) {
+            out.append("{\"unit\":\"").append(unit).append("\",\"count\":").append(histogram.getCount())
+                    .append(",\"min\":").append(histogram.getMin());
+            for (double percentile : PERCENTILES) {
+                out.append(",\"p").append(label(percentile)).append("\":")
+                        .append(histogram.getValueAtPercentile(percentile));
+            }
+            out.append(",\"max\":").append(histogram.getMax())
+                    .append(String.format(Locale.ROOT, ",\"mean\":%.1f}", histogram.getMean()));
+        }
+
+        private static String label(double percentile) {
+            return percentile == Math.rint(percentile) ? String.valueOf((long) percentile)
+                    : String.valueOf(percentile).replace(".", "");
+        }
+    }
+
+    public static class Counter {
+
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long delta) {
+            count.add(delta);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+}
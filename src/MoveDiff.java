@@ -0,0 +1,257 @@
+import java.util.Arrays;
+
+/**
+ * Compact result of one command of the {@link GameLoop}: for a move, the tiles that slid (from, to), the
+ * merges (a + b into c), the spawned tile and the points gained; for a new game, a restore, an undo or a redo,
+ * the whole board. Diffs are pooled by the loop and reuse their primitive arrays; a diff doesn't change
+ * between being published and being released.
+ *
+ * @author Bram
+ */
+public final class MoveDiff {
+
+    public enum Kind {
+        MOVE, NEW_GAME, REPLAY, RESTORE, UNDO, REDO
+    }
+
+    private Kind kind;
+    private Direction direction;
+    private long seed;
+
+    private int[] slideFrom = new int[16];
+    private int[] slideTo = new int[16];
+    private int slides;
+
+    private int[] mergeFrom = new int[8];
+    private int[] mergeInto = new int[8];
+    private int[] mergeTo = new int[8];
+    private int merges;
+
+    private int spawnCell;
+    private int spawnExponent;
+    private int[] exponents;
+    private int score;
+    private int points;
+    private long randomState;
+    private boolean gameOver;
+
+    /**
+     * Captures the move the engine just made and the tile spawned after it.
+     *
+     * @param spawnCell the spawned cell, -1 if none
+     */
+    public MoveDiff captureMove(GameEngine engine, Direction direction, int spawnCell) {
+        capture(Kind.MOVE, engine);
+        this.direction = direction;
+        int count = engine.getMoveCount();
+        for (int i = 0; i < count; i++) {
+            int flags = engine.getMoveFlags(i);
+            if (flags == 0) {
+                if (slides == slideFrom.length) {
+                    slideFrom = Arrays.copyOf(slideFrom, slides * 2);
+                    slideTo = Arrays.copyOf(slideTo, slides * 2);
+                }
+                slideFrom[slides] = engine.getMoveFrom(i);
+                slideTo[slides] = engine.getMoveTo(i);
+                slides++;
+            } else {
+                // both tiles of a merge are consecutive records of the same line
+                if (merges == mergeFrom.length) {
+                    mergeFrom = Arrays.copyOf(mergeFrom, merges * 2);
+                    mergeInto = Arrays.copyOf(mergeInto, merges * 2);
+                    mergeTo = Arrays.copyOf(mergeTo, merges * 2);
+                }
+                boolean absorbedFirst = (flags & BitBoard.ABSORBED) != 0;
+                mergeFrom[merges] = engine.getMoveFrom(absorbedFirst ? i : i + 1);
+                mergeInto[merges] = engine.getMoveFrom(absorbedFirst ? i + 1 : i);
+                mergeTo[merges] = engine.getMoveTo(i);
+                merges++;
+                i++;
+            }
+        }
+        this.spawnCell = spawnCell;
+        this.spawnExponent = spawnCell < 0 ? 0 : engine.getExponent(spawnCell);
+        this.points = engine.getLastScore();
+        return this;
+    }
+
+    /**
+     * Captures the whole board of the engine.
+     *
+     * @param direction the move undone or redone, null if none
+     */
+    public MoveDiff captureBoard(Kind kind, GameEngine engine, Direction direction) {
+        capture(kind, engine);
+        this.direction = direction;
+        int cells = engine.getGridSize() * engine.getGridSize();
+        if (exponents == null || exponents.length != cells) {
+            exponents = new int[cells];
+        }
+        for (int cell = 0; cell < cells; cell++) {
+            exponents[cell] = engine.getExponent(cell);
+        }
+        return this;
+    }
+
+    private void capture(Kind kind, GameEngine engine) {
+        this.kind = kind;
+        seed = engine.getSeed();
+        slides = 0;
+        merges = 0;
+        spawnCell = -1;
+        spawnExponent = 0;
+        points = 0;
+        score = engine.getScore();
+        randomState = engine.getRandom().getState();
+        gameOver = engine.isGameOver();
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns true when this holds a whole board rather than a move.
+     */
+    public boolean isBoard() {
+        return kind != Kind.MOVE;
+    }
+
+    /**
+     * Returns the exponent of a cell of a whole board.
+     */
+    public int getExponent(int cell) {
+        return exponents[cell];
+    }
+
+    /**
+     * Returns the direction moved, or undone or redone; null for other boards or an undo with nothing to undo.
+     */
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * Returns the seed the game started from.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns true when the move changed the board.
+     */
+    public boolean isChanged() {
+        return slides > 0 || merges > 0;
+    }
+
+    public int getSlides() {
+        return slides;
+    }
+
+    public int getSlideFrom(int i) {
+        return slideFrom[i];
+    }
+
+    public int getSlideTo(int i) {
+        return slideTo[i];
+    }
+
+    public int getMerges() {
+        return merges;
+    }
+
+    /**
+     * Returns the cell of the tile absorbed by merge {@code i}.
+     */
+    public int getMergeFrom(int i) {
+        return mergeFrom[i];
+    }
+
+    /**
+     * Returns the cell of the tile that survives merge {@code i}, doubling its value.
+     */
+    public int getMergeInto(int i) {
+        return mergeInto[i];
+    }
+
+    /**
+     * Returns the cell where both tiles of merge {@code i} end up.
+     */
+    public int getMergeTo(int i) {
+        return mergeTo[i];
+    }
+
+    public int getSpawnCell() {
+        return spawnCell;
+    }
+
+    public int getSpawnExponent() {
+        return spawnExponent;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Returns the points gained by the move.
+     */
+    public int getPoints() {
+        return points;
+    }
+
+    /**
+     * Returns the state of the game's generator after the command.
+     */
+    public long getRandomState() {
+        return randomState;
+    }
+
+    /**
+     * Returns a whole 4x4 board packed as a {@link BitBoard}, exponents above its maximum capped.
+     */
+    public long toBitBoard() {
+        long board = 0;
+        for (int cell = 0; cell < BitBoard.CELLS; cell++) {
+            board |= (long) Math.min(getExponent(cell), BitBoard.MAX_EXPONENT) << (4 * cell);
+        }
+        return board;
+    }
+
+    /**
+     * Plays this move and its spawn on a 4x4 {@link BitBoard}: every tile leaves its cell before any lands.
+     */
+    public long applyTo(long board) {
+        long moved = board;
+        for (int i = 0; i < getSlides(); i++) {
+            moved &= ~(0xFL << (4 * getSlideFrom(i)));
+        }
+        for (int i = 0; i < getMerges(); i++) {
+            moved &= ~(0xFL << (4 * getMergeFrom(i)) | 0xFL << (4 * getMergeInto(i)));
+        }
+        for (int i = 0; i < getSlides(); i++) {
+            moved |= (board >>> (4 * getSlideFrom(i)) & 0xF) << (4 * getSlideTo(i));
+        }
+        for (int i = 0; i < getMerges(); i++) {
+            long exponent = Math.min((board >>> (4 * getMergeInto(i)) & 0xF) + 1, BitBoard.MAX_EXPONENT);
+            moved |= exponent << (4 * getMergeTo(i));
+        }
+        if (getSpawnCell() >= 0) {
+            moved |= (long) getSpawnExponent() << (4 * getSpawnCell());
+        }
+        return moved;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    @Override
+    public String toString() {
+        return isBoard() ? "MoveDiff{" + kind + ", direction=" + direction + ", score=" + score + ", gameOver="
+                + gameOver + '}'
+                : "MoveDiff{" + direction + ", slides=" + slides + ", merges=" + merges + ", spawn=" + spawnCell
+                + ", score=" + score + ", points=" + points + ", gameOver=" + gameOver + '}';
+    }
+}
@@ -0,0 +1,11 @@
+/**
+ * Consumer of the {@link MoveDiff}s of a {@link GameLoop}, called on the logic thread right after every
+ * command. A listener must not keep the diff: it is reused once the view released it.
+ *
+ * @author Bram
+ */
+@FunctionalInterface
+public interface MoveDiffListener {
+
+    void onDiff(MoveDiff diff);
+}
@@ -0,0 +1,145 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Recorded game: the seed it started from and every move that changed the board, packed 2 bits per move.
+ * Replaying the moves on a {@link GameEngine} started with the same seed gives the same game, spawns
+ * included.
+ *
+ * @author Bram
+ */
+public class MoveLog {
+
+    public static final String EXTENSION = ".2048";
+
+    private static final int MAGIC = 0x324C4F47;
+    private static final int VERSION = 1;
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final int gridSize;
+    private final long seed;
+    private byte[] moves;
+    private int size;
+    private int score = -1;
+
+    public MoveLog(int gridSize, long seed) {
+        this(gridSize, seed, new byte[64], 0);
+    }
+
+    private MoveLog(int gridSize, long seed, byte[] moves, int size) {
+        this.gridSize = gridSize;
+        this.seed = seed;
+        this.moves = moves;
+        this.size = size;
+    }
+
+    public void add(Direction direction) {
+        int index = size >>> 2;
+        if (index == moves.length) {
+            moves = Arrays.copyOf(moves, moves.length * 2);
+        }
+        moves[index] |= direction.ordinal() << ((size & 3) << 1);
+        size++;
+    }
+
+    /**
+     * Drops the last move, after it got undone.
+     */
+    public void removeLast() {
+        if (size == 0) {
+            throw new IllegalStateException("No moves");
+        }
+        size--;
+        moves[size >>> 2] &= ~(3 << ((size & 3) << 1));
+    }
+
+    public Direction get(int move) {
+        if (move < 0 || move >= size) {
+            throw new IndexOutOfBoundsException("Move " + move + " of " + size);
+        }
+        return DIRECTIONS[(moves[move >>> 2] >>> ((move & 3) << 1)) & 3];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getGridSize() {
+        return gridSize;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the score the recorded game ended with, -1 if unknown.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    public void setScore(int score) {
+        this.score = score;
+    }
+
+    /**
+     * Returns the directory recorded games are written to by default.
+     */
+    public static Path defaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".game2048", "games");
+    }
+
+    /**
+     * Writes the log into the directory, named after its grid size and seed.
+     *
+     * @return the file written
+     */
+    public Path writeTo(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path path = directory.resolve(String.format("%dx%d-%016x%s", gridSize, gridSize, seed, EXTENSION));
+        write(path);
+        return path;
+    }
+
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(gridSize);
+            out.writeLong(seed);
+            out.writeInt(score);
+            out.writeInt(size);
+            out.write(moves, 0, (size + 3) >>> 2);
+        }
+    }
+
+    public static MoveLog read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a move log: " + path);
+            }
+            int gridSize = in.readInt();
+            long seed = in.readLong();
+            int score = in.readInt();
+            int size = in.readInt();
+            byte[] moves = new byte[Math.max(16, (size + 3) >>> 2)];
+            in.readFully(moves, 0, (size + 3) >>> 2);
+            MoveLog log = new MoveLog(gridSize, seed, moves, size);
+            log.setScore(score);
+            return log;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MoveLog{gridSize=" + gridSize + ", seed=" + seed + ", moves=" + size + ", score=" + score + '}';
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Keeps the {@link MoveLog} of the running game from the diff stream and writes it when the game is over.
+ * Undo and redo shorten and extend the log; replayed and restored games, which don't start from a seed of
+ * their own, aren't recorded.
+ *
+ * @author Bram
+ */
+public class MoveRecorder implements MoveDiffListener {
+
+    private final int gridSize;
+    private final Path directory;
+    private MoveLog log;
+
+    public MoveRecorder(int gridSize, Path directory) {
+        this.gridSize = gridSize;
+        this.directory = directory;
+    }
+
+    @Override
+    public void onDiff(MoveDiff diff) {
+        switch (diff.getKind()) {
+            case NEW_GAME:
+                log = new MoveLog(gridSize, diff.getSeed());
+                return;
+            case REPLAY:
+            case RESTORE:
+                log = null;
+                return;
+            case UNDO:
+                if (log != null && diff.getDirection() != null) {
+                    log.removeLast();
+                }
+                return;
+            case REDO:
+                if (log != null && diff.getDirection() != null) {
+                    log.add(diff.getDirection());
+                }
+                return;
+            default:
+                if (log != null && diff.isChanged()) {
+                    log.add(diff.getDirection());
+                    if (diff.isGameOver()) {
+                        write(diff.getScore());
+                    }
+                }
+        }
+    }
+
+    private void write(int score) {
+        log.setScore(score);
+        try {
+            log.writeTo(directory);
+        } catch (IOException e) {
+            System.err.println("Can't record the game: " + e);
+        }
+    }
+
+    /**
+     * Returns the log of the running game, null if it isn't recorded.
+     */
+    public MoveLog getLog() {
+        return log;
+    }
+}
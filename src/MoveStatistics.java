@@ -0,0 +1,58 @@
+/**
+ * Counts what the moves of the diff stream did: slides, merges, spawns and points, with the number of
+ * tiles touched per move in a {@link Histogram}.
+ *
+ * @author Bram
+ */
+public class MoveStatistics implements MoveDiffListener {
+
+    private long moves;
+    private long noops;
+    private long slides;
+    private long merges;
+    private long spawns;
+    private long fours;
+    private long points;
+    private final Histogram tilesPerMove = new Histogram();
+
+    @Override
+    public synchronized void onDiff(MoveDiff diff) {
+        if (diff.isBoard()) {
+            return;
+        }
+        if (!diff.isChanged()) {
+            noops++;
+            return;
+        }
+        moves++;
+        slides += diff.getSlides();
+        merges += diff.getMerges();
+        points += diff.getPoints();
+        tilesPerMove.record(diff.getSlides() + 2 * diff.getMerges());
+        if (diff.getSpawnCell() >= 0) {
+            spawns++;
+            if (diff.getSpawnExponent() == 2) {
+                fours++;
+            }
+        }
+    }
+
+    public synchronized long getMoves() {
+        return moves;
+    }
+
+    public synchronized long getMerges() {
+        return merges;
+    }
+
+    public synchronized long getPoints() {
+        return points;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MoveStatistics{moves=" + moves + ", noops=" + noops + ", slides=" + slides + ", merges=" + merges
+                + ", spawns=" + spawns + ", fours=" + fours + ", points=" + points + ", tiles/move " + tilesPerMove
+                + '}';
+    }
+}
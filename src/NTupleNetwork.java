@@ -0,0 +1,260 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * N-tuple value network for 4x4 {@link BitBoard}s: the value of a board is the sum, over every tuple and its
+ * 8 rotations and reflections, of the weight indexed by the exponents under the tuple's cells. The weights
+ * are floats outside the Java heap, in a direct buffer or memory-mapped straight from a checkpoint file, so
+ * a trained network opens without being read. Updates are plain, unsynchronized writes: threads training
+ * the same network lose an update now and then, which doesn't hurt the learning (Hogwild).
+ *
+ * A checkpoint is a header (magic, version, tuple count and length, the tuples' cells) followed by the
+ * little-endian weights of every tuple.
+ *
+ * @author Bram
+ */
+public class NTupleNetwork implements Strategy, Closeable {
+
+    /**
+     * Two straight and two bent 6-tuples, 16^6 weights each
+     */
+    public static final int[][] DEFAULT_TUPLES = {
+            {0, 1, 2, 3, 4, 5},
+            {4, 5, 6, 7, 8, 9},
+            {0, 1, 2, 4, 5, 6},
+            {4, 5, 6, 8, 9, 10}
+    };
+
+    private static final int MAGIC = 0x4E545550;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 256;
+
+    private final int[][] tuples;
+    private final ByteBuffer buffer;
+    private final FloatBuffer weights;
+    /**
+     * Per feature (tuple and symmetry), the bit offset of each of its cells in the board
+     */
+    private final int[][] shifts;
+    /**
+     * Per feature, the index of its tuple's first weight
+     */
+    private final int[] offsets;
+
+    private NTupleNetwork(int[][] tuples, ByteBuffer buffer) {
+        this.tuples = tuples;
+        this.buffer = buffer;
+        this.weights = buffer.slice(HEADER_SIZE, buffer.capacity() - HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer();
+        shifts = new int[tuples.length * BitBoard.SYMMETRIES][];
+        offsets = new int[shifts.length];
+        int offset = 0;
+        for (int t = 0; t < tuples.length; t++) {
+            for (int s = 0; s < BitBoard.SYMMETRIES; s++) {
+                int[] cells = new int[tuples[t].length];
+                for (int k = 0; k < cells.length; k++) {
+                    cells[k] = 4 * symmetric(tuples[t][k], s);
+                }
+                shifts[t * BitBoard.SYMMETRIES + s] = cells;
+                offsets[t * BitBoard.SYMMETRIES + s] = offset;
+            }
+            offset += 1 << (4 * tuples[t].length);
+        }
+    }
+
+    /**
+     * Returns the cell that {@code cell} maps to under symmetry {@code s}, see {@link BitBoard#SYMMETRIES}.
+     */
+    private static int symmetric(int cell, int s) {
+        int x = cell % BitBoard.SIZE;
+        int y = cell / BitBoard.SIZE;
+        if ((s & 1) != 0) {
+            x = BitBoard.SIZE - 1 - x;
+        }
+        if ((s & 2) != 0) {
+            y = BitBoard.SIZE - 1 - y;
+        }
+        return (s & 4) != 0 ? x * BitBoard.SIZE + y : y * BitBoard.SIZE + x;
+    }
+
+    private static long size(int[][] tuples) {
+        long size = HEADER_SIZE;
+        for (int[] tuple : tuples) {
+            size += 4L << (4 * tuple.length);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Network too large for one buffer: " + size + " bytes");
+        }
+        return size;
+    }
+
+    /**
+     * Creates a network with all weights zero in a direct buffer.
+     */
+    public static NTupleNetwork create(int[][] tuples) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) size(tuples));
+        writeHeader(buffer, tuples);
+        return new NTupleNetwork(tuples, buffer);
+    }
+
+    /**
+     * Maps a checkpoint for training, creating it with the given tuples and zero weights if it doesn't exist.
+     * Weights written to the network end up in the file; {@link #checkpoint()} forces them out.
+     */
+    public static NTupleNetwork open(Path path, int[][] tuples) throws IOException {
+        if (!Files.exists(path)) {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(tuples));
+                writeHeader(buffer, tuples);
+                buffer.force();
+            }
+        }
+        return map(path, FileChannel.MapMode.READ_WRITE);
+    }
+
+    /**
+     * Maps a checkpoint read only, for playing.
+     */
+    public static NTupleNetwork load(Path path) throws IOException {
+        return map(path, FileChannel.MapMode.READ_ONLY);
+    }
+
+    private static NTupleNetwork map(Path path, FileChannel.MapMode mode) throws IOException {
+        StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[]{StandardOpenOption.READ}
+                : new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE};
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a network: " + path);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a network: " + path);
+            }
+            int count = header.getInt(8);
+            int length = header.getInt(12);
+            if (count < 1 || length < 1 || length > 7 || 16 + count * length > HEADER_SIZE) {
+                throw new IOException("Bad tuples in " + path);
+            }
+            int[][] tuples = new int[count][length];
+            for (int t = 0; t < count; t++) {
+                for (int k = 0; k < length; k++) {
+                    tuples[t][k] = header.get(16 + t * length + k);
+                }
+            }
+            long size = size(tuples);
+            if (channel.size() != size) {
+                throw new IOException("Truncated network: " + path);
+            }
+            return new NTupleNetwork(tuples, channel.map(mode, 0, size));
+        }
+    }
+
+    private static void writeHeader(ByteBuffer buffer, int[][] tuples) {
+        int length = tuples[0].length;
+        if (16 + tuples.length * length > HEADER_SIZE) {
+            throw new IllegalArgumentException("Too many tuples for the header: " + tuples.length);
+        }
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, tuples.length);
+        buffer.putInt(12, length);
+        for (int t = 0; t < tuples.length; t++) {
+            if (tuples[t].length != length) {
+                throw new IllegalArgumentException("Tuples differ in length");
+            }
+            for (int k = 0; k < length; k++) {
+                buffer.put(16 + t * length + k, (byte) tuples[t][k]);
+            }
+        }
+        buffer.putInt(0, MAGIC);
+    }
+
+    public static Path defaultPath() {
+        return Paths.get(System.getProperty("user.home"), ".game2048", "ntuple.bin");
+    }
+
+    public float evaluate(long board) {
+        float value = 0;
+        for (int f = 0; f < shifts.length; f++) {
+            value += weights.get(offsets[f] + index(board, shifts[f]));
+        }
+        return value;
+    }
+
+    /**
+     * Adds {@code delta} to every weight of the board, so that its value moves by {@code delta} times the
+     * number of features.
+     */
+    public void update(long board, float delta) {
+        for (int f = 0; f < shifts.length; f++) {
+            int i = offsets[f] + index(board, shifts[f]);
+            weights.put(i, weights.get(i) + delta);
+        }
+    }
+
+    private static int index(long board, int[] cells) {
+        int index = 0;
+        for (int k = 0; k < cells.length; k++) {
+            index |= (int) ((board >>> cells[k]) & 0xF) << (4 * k);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the number of weights that make up the value of a board.
+     */
+    public int getFeatureCount() {
+        return shifts.length;
+    }
+
+    public int[][] getTuples() {
+        return tuples;
+    }
+
+    /**
+     * Takes the move with the highest score plus value of the board it leaves, before the spawn.
+     */
+    @Override
+    public Direction nextMove(long board, GameRandom random) {
+        Direction best = null;
+        float bestValue = Float.NEGATIVE_INFINITY;
+        for (Direction direction : Direction.values()) {
+            long moved = BitBoard.move(board, direction);
+            if (moved != board) {
+                float value = BitBoard.score(board, direction) + evaluate(moved);
+                if (value > bestValue) {
+                    best = direction;
+                    bestValue = value;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Writes the weights of a mapped network out to its file.
+     */
+    public void checkpoint() {
+        if (buffer instanceof MappedByteBuffer && !buffer.isReadOnly()) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    @Override
+    public void close() {
+        checkpoint();
+    }
+}
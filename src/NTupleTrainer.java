@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless trainer for an {@link NTupleNetwork}: every thread plays games against itself on {@link BitBoard}s
+ * and learns the value of the boards left after each move (before the spawn) by temporal difference, all
+ * threads writing the same weights without locks. Progress and the episode rate are reported every few
+ * seconds, and the weights are forced out to the checkpoint file as they go.
+ *
+ * Usage: {@code NTupleTrainer [--episodes n] [--threads t] [--alpha a] [--seed s] [--network file] [--report seconds]}
+ *
+ * @author Bram
+ */
+public class NTupleTrainer {
+
+    private final NTupleNetwork network;
+    private final float alpha;
+    private final AtomicLong remaining;
+
+    private final LongAdder episodes = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder scores = new LongAdder();
+    private final LongAdder wins = new LongAdder();
+
+    /**
+     * @param alpha the learning rate, spread over the features of a board
+     */
+    public NTupleTrainer(NTupleNetwork network, float alpha, long episodes) {
+        this.network = network;
+        this.alpha = alpha / network.getFeatureCount();
+        this.remaining = new AtomicLong(episodes);
+    }
+
+    /**
+     * Trains on the given number of threads until all episodes are played, reporting every
+     * {@code reportSeconds}.
+     */
+    public void train(int threads, long seed, double reportSeconds) throws InterruptedException {
+        GameRandom random = new GameRandom(seed);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            GameRandom workerRandom = random.split();
+            workers[i] = new Thread(() -> {
+                while (remaining.getAndDecrement() > 0) {
+                    playEpisode(workerRandom);
+                }
+            }, "ntuple-trainer-" + i);
+            workers[i].start();
+        }
+
+        long start = System.nanoTime();
+        long lastTime = start;
+        long lastEpisodes = 0;
+        long lastMoves = 0;
+        long lastScores = 0;
+        long lastWins = 0;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                worker.join((long) (reportSeconds * 1000));
+                long now = System.nanoTime();
+                if (now - lastTime < reportSeconds * 1e9 && worker.isAlive()) {
+                    continue;
+                }
+                long e = episodes.sum();
+                long m = moves.sum();
+                long s = scores.sum();
+                long w = wins.sum();
+                if (e > lastEpisodes) {
+                    double seconds = (now - lastTime) / 1e9;
+                    System.out.printf("%d episodes: %.0f episodes/s, %.0f moves/s, mean score %.0f, 2048 rate %.1f%%%n",
+                            e, (e - lastEpisodes) / seconds, (m - lastMoves) / seconds,
+                            (double) (s - lastScores) / (e - lastEpisodes), 100.0 * (w - lastWins) / (e - lastEpisodes));
+                }
+                network.checkpoint();
+                lastTime = now;
+                lastEpisodes = e;
+                lastMoves = m;
+                lastScores = s;
+                lastWins = w;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d episodes in %.1f s on %d threads: %.0f episodes/s%n", episodes.sum(), seconds, threads,
+                episodes.sum() / seconds);
+    }
+
+    /**
+     * Plays one game, moving each afterstate towards the points and value of the best move from the board
+     * the spawn makes of it, and the last one towards zero.
+     */
+    private void playEpisode(GameRandom random) {
+        long board = BitBoard.newGame(random);
+        long afterstate = 0;
+        boolean first = true;
+        int score = 0;
+        int count = 0;
+        while (true) {
+            long bestAfterstate = 0;
+            int bestPoints = 0;
+            float bestValue = Float.NEGATIVE_INFINITY;
+            for (Direction direction : Direction.values()) {
+                long moved = BitBoard.move(board, direction);
+                if (moved != board) {
+                    int points = BitBoard.score(board, direction);
+                    float value = points + network.evaluate(moved);
+                    if (value > bestValue) {
+                        bestAfterstate = moved;
+                        bestPoints = points;
+                        bestValue = value;
+                    }
+                }
+            }
+            if (bestValue == Float.NEGATIVE_INFINITY) {
+                break;
+            }
+            if (!first) {
+                network.update(afterstate, alpha * (bestValue - network.evaluate(afterstate)));
+            }
+            first = false;
+            afterstate = bestAfterstate;
+            score += bestPoints;
+            count++;
+            board = BitBoard.spawnTile(afterstate, random);
+        }
+        if (!first) {
+            network.update(afterstate, -alpha * network.evaluate(afterstate));
+        }
+
+        episodes.increment();
+        moves.add(count);
+        scores.add(score);
+        if (BitBoard.maxExponent(board) >= 11) {
+            wins.increment();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long episodes = 100_000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        float alpha = 0.1f;
+        long seed = System.nanoTime();
+        Path path = NTupleNetwork.defaultPath();
+        double report = 5;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--episodes":
+                    episodes = Long.parseLong(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--alpha":
+                    alpha = Float.parseFloat(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--network":
+                    path = Paths.get(args[i + 1]);
+                    break;
+                case "--report":
+                    report = Double.parseDouble(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        try (NTupleNetwork network = NTupleNetwork.open(path, NTupleNetwork.DEFAULT_TUPLES)) {
+            System.out.printf("network=%s episodes=%d threads=%d alpha=%s seed=%d%n", path, episodes, threads, alpha,
+                    seed);
+            new NTupleTrainer(network, alpha, episodes).train(threads, seed, report);
+        }
+    }
+}
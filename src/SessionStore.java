@@ -0,0 +1,209 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Millions of 4x4 games kept as a struct of arrays in one flat buffer, on or off the heap: the packed
+ * {@link BitBoard}s, then the generator states, the scores and the move counts, 24 bytes per game (plus 4
+ * for the list of free slots). Games are addressed by their slot; released slots are reused. A game started
+ * from a seed plays exactly like a {@link GameEngine} started from it. Batches of moves go through the
+ * {@link BatchMover} of {@link BatchMover#create()}, the SIMD kernel where it is enabled.
+ *
+ * Not thread safe: to move games in parallel, split them over several stores.
+ *
+ * @author Bram
+ */
+public class SessionStore {
+
+    public static final int BYTES_PER_GAME = 8 + 8 + 4 + 4;
+    public static final int MAX_CAPACITY = Integer.MAX_VALUE / BYTES_PER_GAME;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final int capacity;
+    private final ByteBuffer buffer;
+    private final int randomsOffset;
+    private final int scoresOffset;
+    private final int movesOffset;
+
+    /**
+     * Released slots, reused last in first out
+     */
+    private final int[] free;
+    private int freeCount;
+    private int used;
+    private int size;
+    private final GameRandom random = new GameRandom(0);
+
+    /**
+     * Scratch of {@link #moveAll}, per direction: the batch indices, boards, moved boards and points
+     */
+    private final BatchMover mover = BatchMover.create();
+    private final int[][] batchIndices = new int[DIRECTIONS.length][0];
+    private final long[][] batchBoards = new long[DIRECTIONS.length][0];
+    private final long[][] batchMoved = new long[DIRECTIONS.length][0];
+    private final int[][] batchScores = new int[DIRECTIONS.length][0];
+    private final int[] batchCounts = new int[DIRECTIONS.length];
+
+    /**
+     * @param offHeap keep the games in a direct buffer, outside the Java heap
+     */
+    public SessionStore(int capacity, boolean offHeap) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        }
+        this.capacity = capacity;
+        int bytes = capacity * BYTES_PER_GAME;
+        buffer = (offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes)).order(ByteOrder.nativeOrder());
+        randomsOffset = capacity * 8;
+        scoresOffset = capacity * 16;
+        movesOffset = capacity * 20;
+        free = new int[capacity];
+    }
+
+    /**
+     * Starts a game in a free slot.
+     *
+     * @return the slot of the game
+     * @throws IllegalStateException when the store is full
+     */
+    public int create(long seed) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else if (used < capacity) {
+            slot = used++;
+        } else {
+            throw new IllegalStateException("Store full: " + capacity + " games");
+        }
+        size++;
+        random.setState(seed);
+        long board = BitBoard.newGame(random);
+        buffer.putLong(slot << 3, board);
+        buffer.putLong(randomsOffset + (slot << 3), random.getState());
+        buffer.putInt(scoresOffset + (slot << 2), 0);
+        buffer.putInt(movesOffset + (slot << 2), 0);
+        return slot;
+    }
+
+    /**
+     * Frees the slot of a game. The slot must not be used until {@link #create} hands it out again.
+     */
+    public void release(int slot) {
+        free[freeCount++] = slot;
+        size--;
+    }
+
+    /**
+     * Moves one game and spawns a tile if the board changed.
+     *
+     * @return the points gained, -1 if the move changed nothing
+     */
+    public int move(int slot, Direction direction) {
+        long board = buffer.getLong(slot << 3);
+        long moved = BitBoard.move(board, direction);
+        if (moved == board) {
+            return -1;
+        }
+        int points = BitBoard.score(board, direction);
+        commit(slot, moved, points);
+        return points;
+    }
+
+    /**
+     * Spawns a tile on a moved board and stores it with the points of the move.
+     */
+    private void commit(int slot, long moved, int points) {
+        int randomIndex = randomsOffset + (slot << 3);
+        random.setState(buffer.getLong(randomIndex));
+        buffer.putLong(slot << 3, BitBoard.spawnTile(moved, random));
+        buffer.putLong(randomIndex, random.getState());
+        int scoreIndex = scoresOffset + (slot << 2);
+        buffer.putInt(scoreIndex, buffer.getInt(scoreIndex) + points);
+        int movesIndex = movesOffset + (slot << 2);
+        buffer.putInt(movesIndex, buffer.getInt(movesIndex) + 1);
+    }
+
+    /**
+     * Applies a batch of moves: game {@code slots[i]} moves in direction {@code directions[i]} (a
+     * {@link Direction} ordinal). The boards are grouped by direction and every group is moved by the
+     * batch mover in one call. A slot may only appear once per batch.
+     *
+     * @param points receives the result of every {@link #move}, or null
+     * @return the number of moves that changed their board
+     */
+    public int moveAll(int[] slots, byte[] directions, int count, int[] points) {
+        for (int d = 0; d < DIRECTIONS.length; d++) {
+            batchCounts[d] = 0;
+            if (batchIndices[d].length < count) {
+                batchIndices[d] = new int[count];
+                batchBoards[d] = new long[count];
+                batchMoved[d] = new long[count];
+                batchScores[d] = new int[count];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int d = directions[i];
+            int n = batchCounts[d]++;
+            batchIndices[d][n] = i;
+            batchBoards[d][n] = buffer.getLong(slots[i] << 3);
+        }
+        int changed = 0;
+        for (int d = 0; d < DIRECTIONS.length; d++) {
+            int n = batchCounts[d];
+            if (n == 0) {
+                continue;
+            }
+            long[] boards = batchBoards[d];
+            long[] moved = batchMoved[d];
+            int[] scores = batchScores[d];
+            int[] indices = batchIndices[d];
+            changed += mover.move(boards, n, DIRECTIONS[d], moved, scores);
+            for (int j = 0; j < n; j++) {
+                int i = indices[j];
+                boolean moves = moved[j] != boards[j];
+                if (moves) {
+                    commit(slots[i], moved[j], scores[j]);
+                }
+                if (points != null) {
+                    points[i] = moves ? scores[j] : -1;
+                }
+            }
+        }
+        return changed;
+    }
+
+    public long getBoard(int slot) {
+        return buffer.getLong(slot << 3);
+    }
+
+    public int getScore(int slot) {
+        return buffer.getInt(scoresOffset + (slot << 2));
+    }
+
+    public int getMoveCount(int slot) {
+        return buffer.getInt(movesOffset + (slot << 2));
+    }
+
+    public long getRandomState(int slot) {
+        return buffer.getLong(randomsOffset + (slot << 3));
+    }
+
+    public boolean isGameOver(int slot) {
+        return !BitBoard.canMove(getBoard(slot));
+    }
+
+    /**
+     * Returns the number of live games.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isOffHeap() {
+        return buffer.isDirect();
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.PrintStream;
+
+/**
+ * Aggregate results of many headless games. Only histograms are kept, never the games themselves, and
+ * stats recorded on different threads are combined with {@link #merge(SimulationStats)}.
+ *
+ * @author Bram
+ */
+public class SimulationStats {
+
+    private final Histogram scores = new Histogram();
+    private final Histogram moves = new Histogram();
+    private final long[] maxTiles = new long[BitBoard.MAX_EXPONENT + 1];
+    private long games;
+    private long totalMoves;
+
+    public void record(int score, int maxExponent, int moveCount) {
+        scores.record(score);
+        moves.record(moveCount);
+        maxTiles[maxExponent]++;
+        games++;
+        totalMoves += moveCount;
+    }
+
+    public SimulationStats merge(SimulationStats other) {
+        scores.merge(other.scores);
+        moves.merge(other.moves);
+        for (int i = 0; i < maxTiles.length; i++) {
+            maxTiles[i] += other.maxTiles[i];
+        }
+        games += other.games;
+        totalMoves += other.totalMoves;
+        return this;
+    }
+
+    public long getGames() {
+        return games;
+    }
+
+    public long getTotalMoves() {
+        return totalMoves;
+    }
+
+    public Histogram getScores() {
+        return scores;
+    }
+
+    public Histogram getMoves() {
+        return moves;
+    }
+
+    /**
+     * Returns how many games ended with the given tile exponent as their highest tile.
+     */
+    public long getMaxTileCount(int exponent) {
+        return maxTiles[exponent];
+    }
+
+    public void print(PrintStream out) {
+        out.println("games:  " + games);
+        out.println("score:  " + scores);
+        out.println("moves:  " + moves);
+        out.println("max tile:");
+        long reached = 0;
+        for (int i = maxTiles.length - 1; i > 0; i--) {
+            reached += maxTiles[i];
+            if (maxTiles[i] > 0) {
+                out.printf("  %6d  %10d games  %6.2f%% reached%n", BitBoard.valueOf(i), maxTiles[i],
+                        100.0 * reached / games);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Fixed-size binary game snapshots in a memory-mapped file. The file holds a header and a number of slots;
+ * slot 0 is the manual save, the others form a ring for autosaves. A slot stores the score, the state of
+ * the game's {@link GameRandom} and one byte per tile exponent, and is only considered valid once its
+ * sequence number, written last, is set. Autosaves are fed by the diff stream: a move copies the previous
+ * autosave and writes only the cells it changed.
+ *
+ * @author Bram
+ */
+public class SnapshotStore implements Closeable, MoveDiffListener {
+
+    public static final int MANUAL_SLOT = 0;
+    public static final int DEFAULT_SLOTS = 64;
+
+    private static final int MAGIC = 0x32303438;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private static final int SEQUENCE = 0;
+    private static final int SCORE = 8;
+    private static final int RANDOM = 12;
+    private static final int CELLS = 20;
+
+    private final int gridSize;
+    private final int slots;
+    private final int slotSize;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private long sequence;
+    private int nextAutosave = 1;
+    private int lastAutosave = -1;
+    private int[] values = new int[16];
+    private final int[] exponents;
+
+    public SnapshotStore(Path path, int gridSize, int slots) throws IOException {
+        if (slots < 2) {
+            throw new IllegalArgumentException("Need a manual and at least one autosave slot: " + slots);
+        }
+        this.gridSize = gridSize;
+        this.slots = slots;
+        this.slotSize = (CELLS + gridSize * gridSize + 7) & ~7;
+        this.exponents = new int[gridSize * gridSize];
+
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = HEADER_SIZE + (long) slots * slotSize;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != gridSize
+                || buffer.getInt(12) != slots) {
+            for (int i = 0; i < size; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, gridSize);
+            buffer.putInt(12, slots);
+            buffer.putInt(0, MAGIC);
+        }
+
+        long latest = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            long s = buffer.getLong(offset(slot) + SEQUENCE);
+            sequence = Math.max(sequence, s);
+            if (slot != MANUAL_SLOT && s > latest) {
+                latest = s;
+                nextAutosave = slot % (slots - 1) + 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the default snapshot file for a grid size, in the user's home directory.
+     */
+    public static Path defaultPath(int gridSize) {
+        return Paths.get(System.getProperty("user.home"), ".game2048", "snapshots-" + gridSize + "x" + gridSize + ".bin");
+    }
+
+    public void save(int slot, GameEngine engine) {
+        checkGrid(engine);
+        int offset = offset(slot);
+        buffer.putLong(offset + SEQUENCE, 0);
+        buffer.putInt(offset + SCORE, engine.getScore());
+        buffer.putLong(offset + RANDOM, engine.getRandom().getState());
+        for (int cell = 0; cell < gridSize * gridSize; cell++) {
+            buffer.put(offset + CELLS + cell, (byte) engine.getExponent(cell));
+        }
+        buffer.putLong(offset + SEQUENCE, ++sequence);
+    }
+
+    /**
+     * Autosaves every board and every move that changed something into the oldest autosave slot.
+     */
+    @Override
+    public void onDiff(MoveDiff diff) {
+        if (!diff.isBoard() && (!diff.isChanged() || lastAutosave < 0)) {
+            return;
+        }
+        int offset = offset(nextAutosave);
+        buffer.putLong(offset + SEQUENCE, 0);
+        if (diff.isBoard()) {
+            for (int cell = 0; cell < gridSize * gridSize; cell++) {
+                buffer.put(offset + CELLS + cell, (byte) diff.getExponent(cell));
+            }
+        } else {
+            buffer.put(offset + CELLS, buffer, offset(lastAutosave) + CELLS, gridSize * gridSize);
+            applyMove(offset + CELLS, diff);
+        }
+        buffer.putInt(offset + SCORE, diff.getScore());
+        buffer.putLong(offset + RANDOM, diff.getRandomState());
+        buffer.putLong(offset + SEQUENCE, ++sequence);
+        lastAutosave = nextAutosave;
+        nextAutosave = nextAutosave % (slots - 1) + 1;
+    }
+
+    private void applyMove(int cells, MoveDiff diff) {
+        int slides = diff.getSlides();
+        int merges = diff.getMerges();
+        if (values.length < slides + merges) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, slides + merges));
+        }
+        // read every moving tile before clearing, a tile may move into a cell another one leaves
+        for (int i = 0; i < slides; i++) {
+            values[i] = buffer.get(cells + diff.getSlideFrom(i));
+        }
+        for (int i = 0; i < merges; i++) {
+            values[slides + i] = buffer.get(cells + diff.getMergeInto(i)) + 1;
+        }
+        for (int i = 0; i < slides; i++) {
+            buffer.put(cells + diff.getSlideFrom(i), (byte) 0);
+        }
+        for (int i = 0; i < merges; i++) {
+            buffer.put(cells + diff.getMergeFrom(i), (byte) 0);
+            buffer.put(cells + diff.getMergeInto(i), (byte) 0);
+        }
+        for (int i = 0; i < slides; i++) {
+            buffer.put(cells + diff.getSlideTo(i), (byte) values[i]);
+        }
+        for (int i = 0; i < merges; i++) {
+            buffer.put(cells + diff.getMergeTo(i), (byte) values[slides + i]);
+        }
+        if (diff.getSpawnCell() >= 0) {
+            buffer.put(cells + diff.getSpawnCell(), (byte) diff.getSpawnExponent());
+        }
+    }
+
+    /**
+     * Loads a slot into the engine. The free cells are listed in cell order, so a restored board spawns the
+     * same every time.
+     *
+     * @return false, leaving the engine untouched, if the slot was never written
+     */
+    public boolean restore(int slot, GameEngine engine) {
+        checkGrid(engine);
+        int offset = offset(slot);
+        if (buffer.getLong(offset + SEQUENCE) == 0) {
+            return false;
+        }
+        for (int cell = 0; cell < gridSize * gridSize; cell++) {
+            exponents[cell] = buffer.get(offset + CELLS + cell);
+        }
+        engine.clear();
+        engine.setExponents(exponents);
+        engine.setScore(buffer.getInt(offset + SCORE));
+        engine.getRandom().setState(buffer.getLong(offset + RANDOM));
+        return true;
+    }
+
+    /**
+     * Returns the most recently written autosave slot, -1 if there is none.
+     */
+    public int latestAutosave() {
+        int latest = -1;
+        long latestSequence = 0;
+        for (int slot = 1; slot < slots; slot++) {
+            long s = buffer.getLong(offset(slot) + SEQUENCE);
+            if (s > latestSequence) {
+                latest = slot;
+                latestSequence = s;
+            }
+        }
+        return latest;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private int offset(int slot) {
+        if (slot < 0 || slot >= slots) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " of " + slots);
+        }
+        return HEADER_SIZE + slot * slotSize;
+    }
+
+    private void checkGrid(GameEngine engine) {
+        if (engine.getGridSize() != gridSize) {
+            throw new IllegalArgumentException("Snapshot grid is " + gridSize + ", engine grid is " + engine.getGridSize());
+        }
+    }
+}
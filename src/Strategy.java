@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Picks the next move for a headless game on a {@link BitBoard}.
+ *
+ * @author Bram
+ */
+@FunctionalInterface
+public interface Strategy {
+
+    /**
+     * Returns the direction to play, or null when no move changes the board.
+     */
+    Direction nextMove(long board, GameRandom random);
+
+    Strategy RANDOM = (board, random) -> {
+        Direction[] directions = Direction.values();
+        int legal = 0;
+        for (int i = 0; i < directions.length; i++) {
+            if (BitBoard.move(board, directions[i]) != board) {
+                legal |= 1 << i;
+            }
+        }
+        if (legal == 0) {
+            return null;
+        }
+        return directions[BitBoard.nthSetBit(legal, random.nextInt(Integer.bitCount(legal)))];
+    };
+
+    /**
+     * Takes the move with the highest immediate score, preferring the one leaving most empty cells on ties.
+     */
+    Strategy GREEDY = (board, random) -> {
+        Direction best = null;
+        int bestScore = -1;
+        int bestEmpty = -1;
+        for (Direction direction : Direction.values()) {
+            long moved = BitBoard.move(board, direction);
+            if (moved == board) {
+                continue;
+            }
+            int score = BitBoard.score(board, direction);
+            int empty = BitBoard.countEmpty(moved);
+            if (score > bestScore || (score == bestScore && empty > bestEmpty)) {
+                best = direction;
+                bestScore = score;
+                bestEmpty = empty;
+            }
+        }
+        return best;
+    };
+
+    /**
+     * Resolves "random", "greedy", "ntuple" (the trained {@link NTupleNetwork} at its default path) or the class name of a {@link Strategy} with a public no-arg constructor.
+     * Every "ntuple" maps the network anew: resolve it once and share it, its moves only read the weights.
+     */
+    static Strategy forName(String name) {
+        switch (name.toLowerCase()) {
+            case "random":
+                return RANDOM;
+            case "greedy":
+                return GREEDY;
+            case "ntuple":
+                try {
+                    return NTupleNetwork.load(NTupleNetwork.defaultPath());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            default:
+                try {
+                    return (Strategy) Class.forName(name).getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalArgumentException("Unknown strategy: " + name, e);
+                }
+        }
+    }
+}
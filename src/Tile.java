@@ -1,9 +1,6 @@
 import javafx.geometry.Pos;
 import javafx.scene.control.Label;
 
-import java.util.Optional;
-import java.util.Random;
-
 /**
  * (File info).
  *
@@ -11,32 +8,35 @@ import java.util.Random;
  */
 public class Tile extends Label {
 
-    private Integer value;
+    private static final String[] TEXTS = new String[GameEngine.MAX_EXPONENT + 1];
+    private static final String[] STYLE_CLASSES = new String[GameEngine.MAX_EXPONENT + 1];
+
+    static {
+        for (int i = 1; i <= GameEngine.MAX_EXPONENT; i++) {
+            TEXTS[i] = Integer.toString(1 << i);
+            STYLE_CLASSES[i] = "game-tile-" + TEXTS[i];
+        }
+    }
+
+    private int value;
     private Location location;
-    private Boolean merged;
 
-    public Tile(Integer value) {
+    public Tile(int value) {
         final int squareSize = Board.CELL_SIZE - 13;
         setMinSize(squareSize, squareSize);
         setMaxSize(squareSize, squareSize);
         setPrefSize(squareSize, squareSize);
         setAlignment(Pos.CENTER);
         this.value = value;
-        this.merged = false;
-        setText(value.toString());
-        getStyleClass().addAll("game-label", "game-tile-" + value);
-    }
-
-    public static Tile newRandomTile() {
-        int value = new Random().nextDouble() < 0.9 ? 2 : 4;
-        return new Tile(value);
+        setText(textOf(value));
+        getStyleClass().addAll("game-label", styleClassOf(value));
     }
 
     public static Tile newTile(int value) {
         return new Tile(value);
     }
 
-    public Integer getValue() {
+    public int getValue() {
         return value;
     }
 
@@ -48,24 +48,33 @@ public class Tile extends Label {
         this.location = location;
     }
 
-    public boolean isMerged() {
-        return merged;
+    public void merge(Tile other) {
+        getStyleClass().remove(styleClassOf(value));
+        this.value += other.getValue();
+        setText(textOf(value));
+        getStyleClass().add(styleClassOf(value));
     }
 
-    public void clearMerge() {
-        merged = false;
+    /**
+     * Prepares a pooled tile for reuse with a new value.
+     */
+    public void reset(int value) {
+        if (value != this.value) {
+            getStyleClass().remove(styleClassOf(this.value));
+            this.value = value;
+            setText(textOf(value));
+            getStyleClass().add(styleClassOf(value));
+        }
+        setScaleX(1);
+        setScaleY(1);
     }
 
-    public boolean isMergable(Optional<Tile> anotherTile) {
-        return anotherTile.filter(t -> t.getValue().equals(getValue())).isPresent();
+    private static String textOf(int value) {
+        return TEXTS[BitBoard.exponentOf(value)];
     }
 
-    public void merge(Tile other) {
-        getStyleClass().remove("game-tile-" + value);
-        this.value += other.getValue();
-        setText(value.toString());
-        merged = true;
-        getStyleClass().add("game-tile-" + value);
+    private static String styleClassOf(int value) {
+        return STYLE_CLASSES[BitBoard.exponentOf(value)];
     }
 
     @Override
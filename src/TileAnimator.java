@@ -0,0 +1,180 @@
+import javafx.animation.AnimationTimer;
+import javafx.animation.Interpolator;
+
+import java.util.Arrays;
+
+/**
+ * Animates a whole move from a single {@link AnimationTimer}: slides, merge pops and spawns are recorded in
+ * flat arrays and every tile is updated on the same pulse with the same easing, so all of them end at the
+ * same time and no animation objects are created per move.
+ *
+ * @author Bram
+ */
+public class TileAnimator {
+
+    public static final double ANIMATION_EXISTING_TILE = 55;
+    public static final double ANIMATION_MERGED_TILE = 70;
+    public static final double ANIMATION_NEWLY_ADDED_TILE = 100;
+    private static final double MERGED_SCALE = 1.2;
+
+    private static final int SLIDE = 0;
+    private static final int MERGE = 1;
+    private static final int SPAWN = 2;
+
+    private Tile[] tiles;
+    private int[] kinds;
+    private double[] fromX;
+    private double[] fromY;
+    private double[] toX;
+    private double[] toY;
+    private int count;
+    private double duration;
+    private long start;
+    private Runnable onFinished;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            if (start < 0) {
+                start = now;
+            }
+            double elapsed = (now - start) / 1e6;
+            if (elapsed >= duration) {
+                finish();
+            } else {
+                apply(elapsed);
+            }
+        }
+    };
+
+    public TileAnimator(int capacity) {
+        tiles = new Tile[capacity];
+        kinds = new int[capacity];
+        fromX = new double[capacity];
+        fromY = new double[capacity];
+        toX = new double[capacity];
+        toY = new double[capacity];
+    }
+
+    /**
+     * Jumps to the end of the running animation, if any, and starts recording a new one.
+     */
+    public void begin() {
+        finish();
+        count = 0;
+        duration = 0;
+    }
+
+    public void addSlide(Tile tile, Location to) {
+        int i = add(tile, SLIDE, ANIMATION_EXISTING_TILE);
+        fromX[i] = tile.getLayoutX();
+        fromY[i] = tile.getLayoutY();
+        toX[i] = to.getLayoutX(Board.CELL_SIZE) - (tile.getMinWidth() / 2);
+        toY[i] = to.getLayoutY(Board.CELL_SIZE) - (tile.getMinHeight() / 2);
+    }
+
+    public void addMerge(Tile tile) {
+        add(tile, MERGE, 2 * ANIMATION_MERGED_TILE);
+    }
+
+    public void addSpawn(Tile tile) {
+        add(tile, SPAWN, ANIMATION_NEWLY_ADDED_TILE);
+    }
+
+    private int add(Tile tile, int kind, double millis) {
+        if (count == tiles.length) {
+            grow();
+        }
+        tiles[count] = tile;
+        kinds[count] = kind;
+        duration = Math.max(duration, millis);
+        return count++;
+    }
+
+    private void grow() {
+        int capacity = tiles.length * 2;
+        tiles = Arrays.copyOf(tiles, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        fromX = Arrays.copyOf(fromX, capacity);
+        fromY = Arrays.copyOf(fromY, capacity);
+        toX = Arrays.copyOf(toX, capacity);
+        toY = Arrays.copyOf(toY, capacity);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isRunning() {
+        return onFinished != null;
+    }
+
+    /**
+     * Starts the recorded animation; {@code onFinished} runs once every tile reached its end state.
+     */
+    public void play(Runnable onFinished) {
+        this.onFinished = onFinished;
+        start = -1;
+        apply(0);
+        timer.start();
+    }
+
+    /**
+     * Puts every tile in its end state and runs the pending {@code onFinished}, if any.
+     */
+    public void finish() {
+        timer.stop();
+        Runnable finished = onFinished;
+        if (finished == null) {
+            return;
+        }
+        onFinished = null;
+        apply(duration);
+        finished.run();
+    }
+
+    private void apply(double elapsed) {
+        double slide = slideFraction(elapsed);
+        for (int i = 0; i < count; i++) {
+            Tile tile = tiles[i];
+            switch (kinds[i]) {
+                case SLIDE:
+                    tile.setLayoutX(fromX[i] + (toX[i] - fromX[i]) * slide);
+                    tile.setLayoutY(fromY[i] + (toY[i] - fromY[i]) * slide);
+                    break;
+                case MERGE:
+                    double scale = mergedScale(elapsed);
+                    tile.setScaleX(scale);
+                    tile.setScaleY(scale);
+                    break;
+                default:
+                    double spawn = spawnScale(elapsed);
+                    tile.setScaleX(spawn);
+                    tile.setScaleY(spawn);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Progress of a sliding tile, from 0 to 1, {@code elapsed} milliseconds into a move.
+     */
+    public static double slideFraction(double elapsed) {
+        return Interpolator.EASE_OUT.interpolate(0d, 1d, Math.min(1, elapsed / ANIMATION_EXISTING_TILE));
+    }
+
+    /**
+     * Scale of a merged tile: grows to 1.2 and back to 1.
+     */
+    public static double mergedScale(double elapsed) {
+        if (elapsed < ANIMATION_MERGED_TILE) {
+            return 1 + (MERGED_SCALE - 1) * Interpolator.EASE_IN.interpolate(0d, 1d, elapsed / ANIMATION_MERGED_TILE);
+        }
+        double t = Math.min(1, (elapsed - ANIMATION_MERGED_TILE) / ANIMATION_MERGED_TILE);
+        return MERGED_SCALE - (MERGED_SCALE - 1) * Interpolator.EASE_OUT.interpolate(0d, 1d, t);
+    }
+
+    public static double spawnScale(double elapsed) {
+        return Interpolator.EASE_OUT.interpolate(0d, 1d, Math.min(1, elapsed / ANIMATION_NEWLY_ADDED_TILE));
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Properties of the style sheet rules, read once from {@code game.css}, so renderers that don't use CSS
+ * nodes still paint tiles with the same colours and fonts.
+ *
+ * @author Bram
+ */
+public class TileStyles {
+
+    private static final Pattern RULE = Pattern.compile("([^{}]+)\\{([^}]*)\\}");
+    private static final Pattern DECLARATION = Pattern.compile("\\s*([-\\w]+)\\s*:\\s*([^;]+);?");
+
+    private final Map<String, Map<String, String>> rules = new HashMap<>();
+
+    public TileStyles(String css) {
+        Matcher rule = RULE.matcher(css);
+        while (rule.find()) {
+            Map<String, String> properties = new HashMap<>();
+            Matcher declaration = DECLARATION.matcher(rule.group(2));
+            while (declaration.find()) {
+                properties.put(declaration.group(1), declaration.group(2).trim());
+            }
+            for (String selector : rule.group(1).split(",")) {
+                rules.computeIfAbsent(selector.trim(), s -> new HashMap<>()).putAll(properties);
+            }
+        }
+    }
+
+    public static TileStyles load() {
+        try (InputStream in = TileStyles.class.getResourceAsStream("/game.css")) {
+            if (in == null) {
+                return new TileStyles("");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new TileStyles(new String(out.toByteArray(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't read game.css", e);
+        }
+    }
+
+    public String get(String selector, String property, String fallback) {
+        Map<String, String> properties = rules.get(selector);
+        if (properties == null) {
+            return fallback;
+        }
+        return properties.getOrDefault(property, fallback);
+    }
+
+    /**
+     * Returns a property of the {@code .game-tile-N} rule of a tile value. Values without a rule of their own
+     * use the rule of the highest styled value below them.
+     */
+    public String getTile(int value, String property, String fallback) {
+        for (int v = value; v > 1; v >>= 1) {
+            String found = get(".game-tile-" + v, property, null);
+            if (found != null) {
+                return found;
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * Parses a CSS size such as {@code 55px}.
+     */
+    public static double size(String value) {
+        return Double.parseDouble(value.replaceAll("[^0-9.]", ""));
+    }
+}
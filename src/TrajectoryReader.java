@@ -0,0 +1,277 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a file written by a {@link TrajectoryWriter}. The blocks are memory-mapped one at a time; stored
+ * blocks are read in place and compressed ones are inflated into a buffer reused for every block. A
+ * {@link Cursor} walks the moves row by row through primitive getters, so nothing is allocated per move.
+ *
+ * Usage: {@code TrajectoryReader [file]} prints a summary of the file.
+ *
+ * @author Bram
+ */
+public class TrajectoryReader implements Closeable {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final FileChannel channel;
+    private final long[] offsets;
+    private final int blocks;
+    private final long rows;
+
+    public TrajectoryReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long end = validLength(channel, path);
+            long[] found = new long[16];
+            int count = 0;
+            long total = 0;
+            ByteBuffer header = ByteBuffer.allocate(TrajectoryWriter.BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (long offset = TrajectoryWriter.FILE_HEADER_SIZE; offset < end; ) {
+                readHeader(channel, offset, header);
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = offset;
+                total += header.getInt(0);
+                offset += TrajectoryWriter.BLOCK_HEADER_SIZE + header.getInt(12);
+            }
+            offsets = found;
+            blocks = count;
+            rows = total;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks the file header and returns the end of the last complete block.
+     */
+    static long validLength(FileChannel channel, Path path) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(TrajectoryWriter.BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (size < TrajectoryWriter.FILE_HEADER_SIZE) {
+            throw new IOException("Not a trajectory file: " + path);
+        }
+        readHeader(channel, 0, header);
+        if (header.getInt(0) != TrajectoryWriter.MAGIC || header.getInt(4) != TrajectoryWriter.VERSION) {
+            throw new IOException("Not a trajectory file: " + path);
+        }
+        long offset = TrajectoryWriter.FILE_HEADER_SIZE;
+        while (offset + TrajectoryWriter.BLOCK_HEADER_SIZE <= size) {
+            readHeader(channel, offset, header);
+            long next = offset + TrajectoryWriter.BLOCK_HEADER_SIZE + header.getInt(12);
+            if (header.getInt(0) <= 0 || header.getInt(12) < 0 || next > size) {
+                break;
+            }
+            offset = next;
+        }
+        return offset;
+    }
+
+    private static void readHeader(FileChannel channel, long offset, ByteBuffer header) throws IOException {
+        header.clear();
+        while (header.hasRemaining() && channel.read(header, offset + header.position()) >= 0) {
+            // read until full or the end of the file
+        }
+    }
+
+    public int getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Returns the number of moves in the file.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns a cursor before the first move. Cursors are independent, but each is for one thread.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Walks the moves in the order they were written.
+     */
+    public final class Cursor {
+
+        private final Inflater inflater = new Inflater();
+        private final ByteBuffer header = ByteBuffer.allocate(TrajectoryWriter.BLOCK_HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        private ByteBuffer inflated = ByteBuffer.allocateDirect(0);
+        private ByteBuffer columns;
+        private int block = -1;
+        private int count;
+        private int row;
+        private int actionsAt;
+        private int pointsAt;
+        private int spawnsAt;
+        private long board;
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves to the next move.
+         *
+         * @return false at the end of the file
+         */
+        public boolean next() {
+            if (++row >= count) {
+                if (block + 1 >= blocks) {
+                    row = count;
+                    inflater.end();
+                    return false;
+                }
+                load(++block);
+            }
+            board ^= columns.getLong(row << 3);
+            return true;
+        }
+
+        private void load(int index) {
+            try {
+                readHeader(channel, offsets[index], header);
+                int rawLength = header.getInt(8);
+                int stored = header.getInt(12);
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                        offsets[index] + TrajectoryWriter.BLOCK_HEADER_SIZE, stored);
+                if (header.getInt(4) == TrajectoryWriter.RAW) {
+                    columns = mapped;
+                } else {
+                    if (inflated.capacity() < rawLength) {
+                        inflated = ByteBuffer.allocateDirect(rawLength);
+                    }
+                    inflated.clear().limit(rawLength);
+                    inflater.reset();
+                    inflater.setInput(mapped);
+                    while (inflated.hasRemaining() && !inflater.finished()) {
+                        if (inflater.inflate(inflated) == 0 && inflater.needsInput()) {
+                            throw new IOException("Truncated block " + index);
+                        }
+                    }
+                    columns = inflated;
+                }
+                columns.order(ByteOrder.LITTLE_ENDIAN);
+                count = header.getInt(0);
+                actionsAt = count * 8;
+                pointsAt = count * 9;
+                spawnsAt = count * 13;
+                row = 0;
+                board = 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (DataFormatException e) {
+                throw new UncheckedIOException(new IOException("Corrupt block " + index, e));
+            }
+        }
+
+        /**
+         * Returns the board the move was played on.
+         */
+        public long getBoard() {
+            return board;
+        }
+
+        public Direction getDirection() {
+            return DIRECTIONS[columns.get(actionsAt + row) & TrajectoryWriter.DIRECTION_MASK];
+        }
+
+        /**
+         * Returns true for the first move of a trajectory: of a game, or after an undo, redo or restore.
+         */
+        public boolean isFirst() {
+            return (columns.get(actionsAt + row) & TrajectoryWriter.FIRST) != 0;
+        }
+
+        /**
+         * Returns true for the last move of a trajectory.
+         */
+        public boolean isLast() {
+            return (columns.get(actionsAt + row) & TrajectoryWriter.LAST) != 0;
+        }
+
+        /**
+         * Returns true for the move that ended its game, which is also the last of its trajectory.
+         */
+        public boolean isGameOver() {
+            return (columns.get(actionsAt + row) & TrajectoryWriter.GAME_OVER) != 0;
+        }
+
+        /**
+         * Returns the points scored by the move.
+         */
+        public int getPoints() {
+            return columns.getInt(pointsAt + (row << 2));
+        }
+
+        /**
+         * Returns the cell of the tile spawned after the move, -1 if none.
+         */
+        public int getSpawnCell() {
+            byte spawn = columns.get(spawnsAt + row);
+            return spawn < 0 ? -1 : spawn >> 2;
+        }
+
+        public int getSpawnExponent() {
+            byte spawn = columns.get(spawnsAt + row);
+            return spawn < 0 ? 0 : spawn & 0x3;
+        }
+
+        /**
+         * Returns the board after the move and its spawn.
+         */
+        public long getBoardAfter() {
+            long moved = BitBoard.move(board, getDirection());
+            int cell = getSpawnCell();
+            return cell < 0 ? moved : moved | (long) getSpawnExponent() << (4 * cell);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path path = args.length > 0 ? Paths.get(args[0]) : TrajectoryWriter.defaultPath();
+        try (TrajectoryReader reader = new TrajectoryReader(path)) {
+            long trajectories = 0;
+            long games = 0;
+            long points = 0;
+            int maxExponent = 0;
+            long start = System.nanoTime();
+            Cursor cursor = reader.cursor();
+            while (cursor.next()) {
+                if (cursor.isFirst()) {
+                    trajectories++;
+                }
+                if (cursor.isGameOver()) {
+                    games++;
+                }
+                points += cursor.getPoints();
+                maxExponent = Math.max(maxExponent, BitBoard.maxExponent(cursor.getBoard()));
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s: %d blocks, %d trajectories, %d finished games, %d moves, %d points, max tile %d%n",
+                    path, reader.getBlocks(), trajectories, games, reader.getRows(), points,
+                    BitBoard.valueOf(maxExponent));
+            System.out.printf("read in %.2f s, %.0f moves/s%n", seconds, reader.getRows() / seconds);
+        }
+    }
+}
@@ -0,0 +1,452 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Streams the trajectories of 4x4 games to a file: for every move the packed {@link BitBoard} it was played
+ * on, the direction, the points it scored and the tile spawned after it. Rows are collected in fixed-width
+ * columns by {@link Recorder}s, one per producing thread, which lay every block of rows out in a direct
+ * buffer and hand it to a pool of compressor threads, which compress it and write it to the file channel in
+ * one piece. A recorder has two block buffers, so its thread goes on playing while the last block is being
+ * compressed, and only waits when compression falls two blocks behind. A trajectory is the moves played from
+ * one board: a whole game, or the part of it up to an undo, redo or restore, which ends the trajectory and
+ * starts the next one from the board it put in place. Blocks only end between trajectories, so every
+ * trajectory reads back in one piece, and they don't depend on each other, so they may land in the file in
+ * any order. As a listener, the writer records the moves of a {@link GameLoop}. Read the files back with a
+ * {@link TrajectoryReader}.
+ *
+ * Blocks are compressed with {@link Deflater}, the codec the JDK has. At {@link Deflater#BEST_SPEED} they
+ * are only Huffman coded, which on these columns is both smaller and about twice as fast as searching for
+ * matches, and takes about 5.5 bytes a move. Level 0 stores them as they are, 14 bytes a move, and writes
+ * them on the producing thread without a compressor pool.
+ *
+ * A file is a header (magic, version) followed by blocks, all little-endian. A block has a header of four
+ * ints (rows, codec, raw length, stored length) and its columns, compressed or not:
+ * <pre>
+ * boards   8 bytes  each xor-ed with the one before, leaving only the cells the last move changed
+ * actions  1 byte   direction ordinal | FIRST on the first move of a trajectory | LAST on its last one
+ *                   | GAME_OVER if that move ended the game
+ * points   4 bytes  points scored by the move
+ * spawns   1 byte   cell &lt;&lt; 2 | exponent of the spawned tile, -1 if none
+ * </pre>
+ *
+ * @author Bram
+ */
+public class TrajectoryWriter implements MoveDiffListener, Closeable {
+
+    public static final int FIRST = 0x4;
+    public static final int LAST = 0x8;
+    public static final int GAME_OVER = 0x10;
+    public static final int DIRECTION_MASK = 0x3;
+
+    public static final int BYTES_PER_ROW = 8 + 1 + 4 + 1;
+    public static final int BLOCK_ROWS = 1 << 16;
+    public static final int DEFAULT_LEVEL = Integer.getInteger("game.trajectories.level", Deflater.BEST_SPEED);
+    public static final int COMPRESSOR_THREADS = Integer.getInteger("game.trajectories.compressors",
+            Runtime.getRuntime().availableProcessors());
+    private static final int BUFFERS_PER_RECORDER = 2;
+
+    static final int MAGIC = 0x324A5254;
+    static final int VERSION = 2;
+    static final int FILE_HEADER_SIZE = 8;
+    static final int BLOCK_HEADER_SIZE = 16;
+    static final byte RAW = 0;
+    static final byte DEFLATE = 1;
+
+    private final FileChannel channel;
+    private final int level;
+    private final List<Recorder> recorders = new ArrayList<>();
+    private boolean closing;
+
+    /**
+     * Compression: the pool, null when blocks are stored, its idle deflaters, and the first failure of a
+     * compressor thread, reported to the producers
+     */
+    private final ExecutorService compressors;
+    private final ConcurrentLinkedQueue<Compressor> idle = new ConcurrentLinkedQueue<>();
+    private volatile RuntimeException failure;
+
+    /**
+     * The file side, guarded by {@code fileLock}
+     */
+    private final Object fileLock = new Object();
+    private boolean closed;
+    private long rows;
+    private long blocks;
+    private long bytes;
+
+    /**
+     * Board of the game followed as a listener
+     */
+    private Recorder pipeline;
+    private long board;
+
+    public TrajectoryWriter(Path path) throws IOException {
+        this(path, DEFAULT_LEVEL);
+    }
+
+    /**
+     * Opens the file for appending, creating it if needed. A block cut short by a crash is dropped.
+     *
+     * @param level the {@link Deflater} level of the blocks, 0 to store them uncompressed
+     */
+    public TrajectoryWriter(Path path, int level) throws IOException {
+        if (level < 0 || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Level out of range: " + level);
+        }
+        this.level = level;
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                write(ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                        .putInt(MAGIC).putInt(VERSION).flip());
+            } else {
+                long end = TrajectoryReader.validLength(channel, path);
+                channel.truncate(end);
+                channel.position(end);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        compressors = level == 0 ? null : Executors.newFixedThreadPool(COMPRESSOR_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "trajectory-compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static Path defaultPath() {
+        return Paths.get(System.getProperty("user.home"), ".game2048", "trajectories.bin");
+    }
+
+    /**
+     * Returns a new recorder for one producing thread. Its rows are flushed when the writer closes.
+     */
+    public synchronized Recorder recorder() {
+        Recorder recorder = new Recorder();
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    @Override
+    public synchronized void onDiff(MoveDiff diff) {
+        if (closing) {
+            return;
+        }
+        if (pipeline == null) {
+            pipeline = recorder();
+        }
+        if (diff.isBoard()) {
+            // a new game, or an undo, redo or restore replacing the board, ends the trajectory and starts one
+            board = diff.toBitBoard();
+            pipeline.endGame(false);
+            pipeline.startGame();
+        } else if (diff.isChanged()) {
+            pipeline.record(board, diff.getDirection(), diff.getPoints(), diff.getSpawnCell(), diff.getSpawnExponent());
+            board = diff.applyTo(board);
+            if (diff.isGameOver()) {
+                pipeline.endGame(true);
+            }
+        }
+    }
+
+    /**
+     * Compresses a block laid out by a recorder and writes it, on a compressor thread.
+     */
+    private void compress(ByteBuffer raw, int count) {
+        Compressor compressor = idle.poll();
+        if (compressor == null) {
+            compressor = new Compressor();
+        }
+        try {
+            int length = raw.limit() - BLOCK_HEADER_SIZE;
+            Deflater deflater = compressor.deflater;
+            if (compressor.packed.capacity() < raw.limit()) {
+                compressor.packed = allocate(count);
+            }
+            ByteBuffer packed = compressor.packed;
+            deflater.reset();
+            deflater.setInput(raw.position(BLOCK_HEADER_SIZE));
+            deflater.finish();
+            packed.clear().position(BLOCK_HEADER_SIZE).limit(BLOCK_HEADER_SIZE + length);
+            while (!deflater.finished() && packed.hasRemaining()) {
+                deflater.deflate(packed);
+            }
+            // a block that doesn't shrink is stored as it is
+            if (deflater.finished() && packed.hasRemaining()) {
+                append(packed.flip(), count, DEFLATE, length);
+            } else {
+                append(raw.rewind(), count, RAW, length);
+            }
+        } finally {
+            idle.add(compressor);
+        }
+    }
+
+    /**
+     * Fills in the header of a block, whose stored bytes run up to its limit, and writes it.
+     */
+    private void append(ByteBuffer block, int count, byte codec, int length) {
+        int stored = block.limit() - BLOCK_HEADER_SIZE;
+        block.putInt(0, count).putInt(4, codec).putInt(8, length).putInt(12, stored);
+        synchronized (fileLock) {
+            if (closed) {
+                throw new IllegalStateException("Writer closed");
+            }
+            try {
+                write(block);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            rows += count;
+            blocks++;
+            bytes += block.limit();
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer allocate(int rows) {
+        return ByteBuffer.allocateDirect(BLOCK_HEADER_SIZE + rows * BYTES_PER_ROW).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public long getRows() {
+        synchronized (fileLock) {
+            return rows;
+        }
+    }
+
+    public long getBlocks() {
+        synchronized (fileLock) {
+            return blocks;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the blocks written, headers included.
+     */
+    public long getBytes() {
+        synchronized (fileLock) {
+            return bytes;
+        }
+    }
+
+    /**
+     * Ends the open trajectories, flushes every recorder, waits for the blocks being compressed and closes
+     * the file. The recorders must be idle.
+     *
+     * @throws IOException if a block couldn't be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closing) {
+            return;
+        }
+        closing = true;
+        try {
+            for (Recorder recorder : recorders) {
+                recorder.endGame(false);
+                recorder.flush();
+            }
+        } finally {
+            try {
+                if (compressors != null) {
+                    compressors.shutdown();
+                    while (!compressors.awaitTermination(1, TimeUnit.SECONDS)) {
+                        // blocks still being compressed
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while compressing the last blocks");
+            } finally {
+                synchronized (fileLock) {
+                    closed = true;
+                    channel.close();
+                }
+                for (Compressor compressor : idle) {
+                    compressor.deflater.end();
+                }
+            }
+        }
+        if (failure instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) failure).getCause();
+        } else if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * A deflater and its output buffer, used by one compressor thread at a time.
+     */
+    private final class Compressor {
+
+        private final Deflater deflater = new Deflater(level);
+        private ByteBuffer packed = allocate(BLOCK_ROWS);
+
+        private Compressor() {
+            if (level == Deflater.BEST_SPEED) {
+                deflater.setStrategy(Deflater.HUFFMAN_ONLY);
+            }
+        }
+    }
+
+    /**
+     * Collects the rows of one thread in columns and lays them out a block at a time. Not thread safe.
+     */
+    public final class Recorder {
+
+        private long[] boards = new long[BLOCK_ROWS];
+        private byte[] actions = new byte[BLOCK_ROWS];
+        private int[] points = new int[BLOCK_ROWS];
+        private byte[] spawns = new byte[BLOCK_ROWS];
+        private int count;
+        private boolean first = true;
+        private long previous;
+
+        /**
+         * Block buffers not handed to a compressor
+         */
+        private final BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(BUFFERS_PER_RECORDER);
+
+        private Recorder() {
+            for (int i = 0; i < BUFFERS_PER_RECORDER; i++) {
+                buffers.add(allocate(BLOCK_ROWS));
+            }
+        }
+
+        /**
+         * Marks the next move as the first of a trajectory, and writes out the block if it is full. A
+         * trajectory still open is ended first, as not finished.
+         */
+        public void startGame() {
+            endGame(false);
+            if (count >= BLOCK_ROWS) {
+                flush();
+            }
+            first = true;
+        }
+
+        /**
+         * Adds a move.
+         *
+         * @param board the board the move was played on
+         * @param spawnCell the cell of the tile spawned after the move, -1 if none
+         */
+        public void record(long board, Direction direction, int score, int spawnCell, int spawnExponent) {
+            if (count == boards.length) {
+                grow();
+            }
+            boards[count] = board ^ previous;
+            actions[count] = (byte) (direction.ordinal() | (first ? FIRST : 0));
+            points[count] = score;
+            spawns[count] = (byte) (spawnCell < 0 ? -1 : spawnCell << 2 | spawnExponent);
+            count++;
+            first = false;
+            previous = board;
+        }
+
+        /**
+         * Marks the last move as ending its trajectory, if one is open.
+         *
+         * @param gameOver whether that move ended the game, rather than the game being left
+         */
+        public void endGame(boolean gameOver) {
+            if (!first && count > 0) {
+                actions[count - 1] |= LAST | (gameOver ? GAME_OVER : 0);
+            }
+            first = true;
+        }
+
+        private void grow() {
+            int capacity = boards.length * 2;
+            boards = Arrays.copyOf(boards, capacity);
+            actions = Arrays.copyOf(actions, capacity);
+            points = Arrays.copyOf(points, capacity);
+            spawns = Arrays.copyOf(spawns, capacity);
+        }
+
+        /**
+         * Lays the rows collected so far out in a block and hands it to a compressor, or writes it when blocks
+         * are stored. Waits while both buffers of the recorder are still being compressed.
+         *
+         * @throws UncheckedIOException if a block couldn't be written
+         */
+        public void flush() {
+            if (failure != null) {
+                throw failure;
+            }
+            if (count == 0) {
+                return;
+            }
+            ByteBuffer raw;
+            try {
+                raw = buffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException("Interrupted while waiting for a block"));
+            }
+            int length = count * BYTES_PER_ROW;
+            if (raw.capacity() < BLOCK_HEADER_SIZE + length) {
+                raw = allocate(count);
+            }
+            raw.clear().position(BLOCK_HEADER_SIZE);
+            raw.asLongBuffer().put(boards, 0, count);
+            raw.position(raw.position() + count * 8).put(actions, 0, count);
+            raw.asIntBuffer().put(points, 0, count);
+            raw.position(raw.position() + count * 4).put(spawns, 0, count);
+            raw.flip();
+
+            int rows = count;
+            count = 0;
+            previous = 0;
+            ByteBuffer block = raw;
+            if (compressors == null) {
+                try {
+                    append(block, rows, RAW, length);
+                } finally {
+                    buffers.add(block);
+                }
+                return;
+            }
+            compressors.execute(() -> {
+                try {
+                    compress(block, rows);
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                } finally {
+                    buffers.add(block);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,222 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transposition table of fixed size shared by all threads of a search, without locks. Boards are stored in
+ * their canonical form (see {@link BitBoard#canonicalSymmetry}), so rotations and reflections of a position
+ * share an entry, and moves are turned to and from the canonical board on the way in and out.
+ *
+ * Every entry is two longs: the data (score, depth, age, kind, move) and the board xor-ed with the data.
+ * Both are written and read separately; an entry whose words come from different writes fails the xor and
+ * reads as a miss. A board probes a few consecutive entries; when they are all taken, the one from the oldest
+ * search, then the shallowest, gives way.
+ *
+ * @author Bram
+ */
+public class TranspositionTable {
+
+    public static final int DEFAULT_MEGABYTES = Integer.getInteger("game.solver.cacheMegabytes", 32);
+    public static final int BYTES_PER_ENTRY = 16;
+
+    private static final int PROBES = 4;
+    private static final int AGE_WEIGHT = 4;
+
+    private static final long DEPTH_SHIFT = 32;
+    private static final long DEPTH_MASK = 0x3F;
+    private static final long DECISION = 1L << 38;
+    private static final long MOVE_SHIFT = 39;
+    private static final long AGE_SHIFT = 42;
+    private static final long AGE_MASK = 0xFF;
+
+    private final AtomicLongArray entries;
+    private final int mask;
+    private final int bits;
+    private final AtomicInteger age = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+
+    public TranspositionTable() {
+        this((long) DEFAULT_MEGABYTES << 20);
+    }
+
+    /**
+     * @param bytes the memory budget, rounded down to a power of two number of entries
+     */
+    public TranspositionTable(long bytes) {
+        long capacity = Long.highestOneBit(Math.max(bytes / BYTES_PER_ENTRY, PROBES));
+        if (capacity > 1 << 29) {
+            throw new IllegalArgumentException("Table too large: " + bytes + " bytes");
+        }
+        bits = Long.numberOfTrailingZeros(capacity);
+        mask = (int) capacity - 1;
+        entries = new AtomicLongArray(2 * (int) capacity);
+    }
+
+    /**
+     * Starts a new search: entries of earlier ones stay valid but give way first.
+     */
+    public void nextAge() {
+        age.incrementAndGet();
+    }
+
+    /**
+     * Returns the value of a chance node searched at least {@code depth} deep, or NaN.
+     */
+    public float get(long board, int depth) {
+        long data = find(canonical(board), false);
+        if (data != 0 && depth(data) >= depth) {
+            hits.increment();
+            return Float.intBitsToFloat((int) data);
+        }
+        misses.increment();
+        return Float.NaN;
+    }
+
+    public void put(long board, int depth, float score) {
+        store(canonical(board), Float.floatToRawIntBits(score) & 0xFFFF_FFFFL | (long) depth << DEPTH_SHIFT);
+    }
+
+    /**
+     * Returns the best move found for a board with the player to move, or null.
+     */
+    public Direction getMove(long board) {
+        int symmetry = BitBoard.canonicalSymmetry(board);
+        long data = find(BitBoard.symmetry(board, symmetry), true);
+        if (data == 0) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        Direction move = Direction.values()[(int) (data >>> MOVE_SHIFT) & 0x3];
+        return BitBoard.symmetry(move, BitBoard.inverseSymmetry(symmetry));
+    }
+
+    /**
+     * Returns the depth of the search that found the move of {@link #getMove}, 0 if there is none.
+     */
+    public int getMoveDepth(long board) {
+        long data = find(canonical(board), true);
+        return data == 0 ? 0 : depth(data);
+    }
+
+    public void putMove(long board, int depth, Direction move) {
+        int symmetry = BitBoard.canonicalSymmetry(board);
+        long canonical = BitBoard.symmetry(board, symmetry);
+        store(canonical, DECISION | (long) depth << DEPTH_SHIFT
+                | (long) BitBoard.symmetry(move, symmetry).ordinal() << MOVE_SHIFT);
+    }
+
+    private static long canonical(long board) {
+        return BitBoard.symmetry(board, BitBoard.canonicalSymmetry(board));
+    }
+
+    private static int depth(long data) {
+        return (int) ((data >>> DEPTH_SHIFT) & DEPTH_MASK);
+    }
+
+    /**
+     * Returns the data of the entry of the board, 0 if there is none.
+     */
+    private long find(long board, boolean decision) {
+        int slot = slotOf(board);
+        for (int i = 0; i < PROBES; i++, slot = (slot + 1) & mask) {
+            long data = entries.getOpaque(2 * slot + 1);
+            if ((entries.getOpaque(2 * slot) ^ data) == board && data != 0 && ((data & DECISION) != 0) == decision) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    private void store(long board, long data) {
+        long current = age.get() & AGE_MASK;
+        data |= current << AGE_SHIFT;
+        int slot = slotOf(board);
+        int victim = slot;
+        int victimPriority = Integer.MAX_VALUE;
+        boolean replacing = false;
+        for (int i = 0; i < PROBES; i++, slot = (slot + 1) & mask) {
+            long old = entries.getOpaque(2 * slot + 1);
+            if (old == 0) {
+                victim = slot;
+                replacing = true;
+                break;
+            }
+            long oldAge = (old >>> AGE_SHIFT) & AGE_MASK;
+            if ((entries.getOpaque(2 * slot) ^ old) == board && (old & DECISION) == (data & DECISION)) {
+                if (depth(old) > depth(data) && oldAge == current) {
+                    return;
+                }
+                victim = slot;
+                replacing = true;
+                break;
+            }
+            int priority = depth(old) - AGE_WEIGHT * (int) ((current - oldAge) & AGE_MASK);
+            if (priority < victimPriority) {
+                victim = slot;
+                victimPriority = priority;
+            }
+        }
+        stores.increment();
+        if (!replacing && ((entries.getOpaque(2 * victim + 1) >>> AGE_SHIFT) & AGE_MASK) == current) {
+            collisions.increment();
+        }
+        entries.setOpaque(2 * victim + 1, data);
+        entries.setOpaque(2 * victim, board ^ data);
+    }
+
+    private int slotOf(long board) {
+        return (int) ((board * 0x9E37_79B9_7F4A_7C15L) >>> (64 - bits));
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getStores() {
+        return stores.sum();
+    }
+
+    /**
+     * Returns the number of stores that pushed out an entry of the same search for another board.
+     */
+    public long getCollisions() {
+        return collisions.sum();
+    }
+
+    public double getHitRate() {
+        long lookups = getHits() + getMisses();
+        return lookups == 0 ? 0 : (double) getHits() / lookups;
+    }
+
+    /**
+     * Zeroes the counters.
+     */
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        stores.reset();
+        collisions.reset();
+    }
+
+    @Override
+    public String toString() {
+        long lookups = getHits() + getMisses();
+        long stored = getStores();
+        return String.format("TranspositionTable{%d entries, %d lookups: hits %.1f%%, misses %.1f%%, %d stores: collisions %.1f%%}",
+                getCapacity(), lookups, 100 * getHitRate(), lookups == 0 ? 0 : 100.0 * getMisses() / lookups, stored,
+                stored == 0 ? 0 : 100.0 * getCollisions() / stored);
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Undo/redo history of a {@link GameEngine} in a ring buffer allocated once: every state is one byte per
+ * tile exponent, two bytes per cell for the order spawns pick free cells in, the score, the generator state
+ * and the move that led to it, so an undone game spawns exactly like the original did. When the ring is full
+ * the oldest state is overwritten, so memory stays the same however long the session runs.
+ *
+ * @author Bram
+ */
+public class UndoHistory {
+
+    public static final int DEFAULT_DEPTH = 128;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final int cells;
+    private final int slots;
+    private final byte[] exponents;
+    private final char[] orders;
+    private final int[] scores;
+    private final long[] randoms;
+    private final byte[] moves;
+    private final int[] buffer;
+
+    private int current;
+    private int undoable;
+    private int redoable;
+
+    /**
+     * @param depth the number of moves that can be undone
+     */
+    public UndoHistory(int gridSize, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Undo depth must be positive: " + depth);
+        }
+        this.cells = gridSize * gridSize;
+        if (cells > Character.MAX_VALUE + 1) {
+            throw new IllegalArgumentException("Grid too large for undo: " + gridSize);
+        }
+        this.slots = depth + 1;
+        exponents = new byte[slots * cells];
+        orders = new char[slots * cells];
+        scores = new int[slots];
+        randoms = new long[slots];
+        moves = new byte[slots];
+        buffer = new int[cells];
+    }
+
+    /**
+     * Forgets the history and keeps the engine's state as the first one.
+     */
+    public void reset(GameEngine engine) {
+        undoable = 0;
+        redoable = 0;
+        save(current, engine, -1);
+    }
+
+    /**
+     * Adds the state the engine reached after a move and drops everything that could be redone.
+     */
+    public void record(GameEngine engine, Direction move) {
+        current = (current + 1) % slots;
+        save(current, engine, move.ordinal());
+        undoable = Math.min(undoable + 1, slots - 1);
+        redoable = 0;
+    }
+
+    /**
+     * Puts the engine back in the state before the last move.
+     *
+     * @return the move that was undone, null if there is nothing to undo
+     */
+    public Direction undo(GameEngine engine) {
+        if (undoable == 0) {
+            return null;
+        }
+        Direction undone = DIRECTIONS[moves[current]];
+        current = (current + slots - 1) % slots;
+        undoable--;
+        redoable++;
+        load(current, engine);
+        return undone;
+    }
+
+    /**
+     * Puts the engine in the state after the last undone move.
+     *
+     * @return the move that was redone, null if there is nothing to redo
+     */
+    public Direction redo(GameEngine engine) {
+        if (redoable == 0) {
+            return null;
+        }
+        current = (current + 1) % slots;
+        redoable--;
+        undoable++;
+        load(current, engine);
+        return DIRECTIONS[moves[current]];
+    }
+
+    public boolean canUndo() {
+        return undoable > 0;
+    }
+
+    public boolean canRedo() {
+        return redoable > 0;
+    }
+
+    public int getDepth() {
+        return slots - 1;
+    }
+
+    private void save(int slot, GameEngine engine, int move) {
+        int offset = slot * cells;
+        for (int cell = 0; cell < cells; cell++) {
+            exponents[offset + cell] = (byte) engine.getExponent(cell);
+        }
+        FreeCells free = engine.getFreeCells();
+        for (int i = 0; i < free.size(); i++) {
+            orders[offset + i] = (char) free.get(i);
+        }
+        scores[slot] = engine.getScore();
+        randoms[slot] = engine.getRandom().getState();
+        moves[slot] = (byte) move;
+    }
+
+    private void load(int slot, GameEngine engine) {
+        int offset = slot * cells;
+        for (int cell = 0; cell < cells; cell++) {
+            buffer[cell] = exponents[offset + cell];
+        }
+        engine.setExponents(buffer);
+        engine.getFreeCells().reorder(orders, offset);
+        engine.setScore(scores[slot]);
+        engine.getRandom().setState(randoms[slot]);
+    }
+
+    @Override
+    public String toString() {
+        return "UndoHistory{depth=" + getDepth() + ", undoable=" + undoable + ", redoable=" + redoable
+                + ", bytes=" + (exponents.length + 2L * orders.length + moves.length + 12L * slots) + '}';
+    }
+}
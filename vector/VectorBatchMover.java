@@ -0,0 +1,155 @@
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * SIMD {@link BatchMover}: one board per lane of the widest long vector. Lines are slid and merged with
+ * lane-wise compares and blends instead of the row tables, so every lane follows the same path. Each line
+ * gets a pass of its own over the batch, written out without helper methods, which keeps every loop small
+ * enough for C2 to compile without boxing the vectors. Boards past the last full vector are moved one by
+ * one. Not thread safe: the passes meet in scratch arrays of the instance.
+ *
+ * Kept out of {@code src} because it needs the incubating vector module to build and run:
+ * <pre>
+ * javac -d out -sourcepath src src/BatchMover.java
+ * javac --add-modules jdk.incubator.vector -d out -cp out vector/VectorBatchMover.java
+ * java --add-modules jdk.incubator.vector -Dgame.vector=true -cp out ...
+ * </pre>
+ *
+ * @author Bram
+ */
+public class VectorBatchMover implements BatchMover {
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    /**
+     * Per direction and line, the bit offsets of the cells of the line starting at the wall the tiles
+     * slide to
+     */
+    private static final int[][][] LINES = new int[4][BitBoard.SIZE][BitBoard.SIZE];
+
+    static {
+        for (Direction direction : Direction.values()) {
+            boolean row = direction == Direction.LEFT || direction == Direction.RIGHT;
+            for (int line = 0; line < BitBoard.SIZE; line++) {
+                for (int i = 0; i < BitBoard.SIZE; i++) {
+                    int along = direction == Direction.UP || direction == Direction.LEFT ? i : BitBoard.SIZE - 1 - i;
+                    int cell = row ? line * BitBoard.SIZE + along : along * BitBoard.SIZE + line;
+                    LINES[direction.ordinal()][line][i] = 4 * cell;
+                }
+            }
+        }
+    }
+
+    private long[] result = new long[0];
+    private long[] points = new long[0];
+
+    @Override
+    public int move(long[] boards, int count, Direction direction, long[] moved, int[] scores) {
+        int bound = LONGS.loopBound(count);
+        if (result.length < bound) {
+            result = new long[bound];
+            points = new long[bound];
+        }
+        Arrays.fill(result, 0, bound, 0);
+        Arrays.fill(points, 0, bound, 0);
+        for (int[] shifts : LINES[direction.ordinal()]) {
+            slideLine(boards, bound, shifts[0], shifts[1], shifts[2], shifts[3]);
+        }
+
+        int changed = 0;
+        for (int i = 0; i < bound; i += LONGS.length()) {
+            LongVector after = LongVector.fromArray(LONGS, result, i);
+            changed += after.compare(VectorOperators.NE, LongVector.fromArray(LONGS, boards, i)).trueCount();
+            after.intoArray(moved, i);
+        }
+        for (int i = 0; i < bound; i++) {
+            scores[i] = (int) points[i];
+        }
+        for (int i = bound; i < count; i++) {
+            long board = boards[i];
+            long after = BitBoard.move(board, direction);
+            scores[i] = BitBoard.score(board, direction);
+            moved[i] = after;
+            if (after != board) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Slides the line whose cells sit at bits {@code s0..s3} of every board, adding it to the results and its
+     * merges to the points.
+     */
+    private void slideLine(long[] boards, int bound, int s0, int s1, int s2, int s3) {
+        for (int i = 0; i < bound; i += LONGS.length()) {
+            LongVector one = LongVector.broadcast(LONGS, 1);
+            LongVector board = LongVector.fromArray(LONGS, boards, i);
+            LongVector c0 = board.lanewise(VectorOperators.LSHR, s0).and(0xFL);
+            LongVector c1 = board.lanewise(VectorOperators.LSHR, s1).and(0xFL);
+            LongVector c2 = board.lanewise(VectorOperators.LSHR, s2).and(0xFL);
+            LongVector c3 = board.lanewise(VectorOperators.LSHR, s3).and(0xFL);
+
+            // close the gaps: pull the rest of the line forward over every empty cell
+            VectorMask<Long> empty = c0.eq(0);
+            c0 = c0.blend(c1, empty);
+            c1 = c1.blend(c2, empty);
+            c2 = c2.blend(c3, empty);
+            c3 = c3.blend(0, empty);
+            empty = c0.eq(0);
+            c0 = c0.blend(c1, empty);
+            c1 = c1.blend(c2, empty);
+            c2 = c2.blend(c3, empty);
+            c3 = c3.blend(0, empty);
+            empty = c0.eq(0);
+            c0 = c0.blend(c1, empty);
+            c1 = c1.blend(c2, empty);
+            c2 = c2.blend(c3, empty);
+            c3 = c3.blend(0, empty);
+            empty = c1.eq(0);
+            c1 = c1.blend(c2, empty);
+            c2 = c2.blend(c3, empty);
+            c3 = c3.blend(0, empty);
+            empty = c1.eq(0);
+            c1 = c1.blend(c2, empty);
+            c2 = c2.blend(c3, empty);
+            c3 = c3.blend(0, empty);
+            empty = c2.eq(0);
+            c2 = c2.blend(c3, empty);
+            c3 = c3.blend(0, empty);
+
+            // merge from the wall on, pulling the rest forward after each merge; tiles at the highest exponent stay
+            LongVector score = LongVector.fromArray(LONGS, points, i);
+            VectorMask<Long> merge = c0.eq(c1).and(c0.compare(VectorOperators.NE, 0))
+                    .and(c0.compare(VectorOperators.LT, BitBoard.MAX_EXPONENT));
+            c0 = c0.blend(c0.add(one), merge);
+            score = score.add(one.lanewise(VectorOperators.LSHL, c0).blend(0, merge.not()));
+            c1 = c1.blend(c2, merge);
+            c2 = c2.blend(c3, merge);
+            c3 = c3.blend(0, merge);
+            merge = c1.eq(c2).and(c1.compare(VectorOperators.NE, 0))
+                    .and(c1.compare(VectorOperators.LT, BitBoard.MAX_EXPONENT));
+            c1 = c1.blend(c1.add(one), merge);
+            score = score.add(one.lanewise(VectorOperators.LSHL, c1).blend(0, merge.not()));
+            c2 = c2.blend(c3, merge);
+            c3 = c3.blend(0, merge);
+            merge = c2.eq(c3).and(c2.compare(VectorOperators.NE, 0))
+                    .and(c2.compare(VectorOperators.LT, BitBoard.MAX_EXPONENT));
+            c2 = c2.blend(c2.add(one), merge);
+            score = score.add(one.lanewise(VectorOperators.LSHL, c2).blend(0, merge.not()));
+            c3 = c3.blend(0, merge);
+            score.intoArray(points, i);
+
+            LongVector.fromArray(LONGS, result, i)
+                    .or(c0.lanewise(VectorOperators.LSHL, s0))
+                    .or(c1.lanewise(VectorOperators.LSHL, s1))
+                    .or(c2.lanewise(VectorOperators.LSHL, s2))
+                    .or(c3.lanewise(VectorOperators.LSHL, s3))
+                    .intoArray(result, i);
+        }
+    }
+}